@@ -34,6 +34,7 @@ package com.google.auth.appengine;
 import com.google.appengine.api.appidentity.AppIdentityService;
 import com.google.appengine.api.appidentity.AppIdentityService.GetAccessTokenResult;
 import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
+import com.google.auth.IdentityKey;
 import com.google.auth.ServiceAccountSigner;
 import com.google.auth.http.HttpTransportFactory;
 import com.google.auth.oauth2.AccessToken;
@@ -132,6 +133,16 @@ public class AppEngineCredentials extends GoogleCredentials implements ServiceAc
     return appIdentityService.signForApp(toSign).getSignature();
   }
 
+  /** Returns a key identifying the scopes of the App Engine service account. */
+  @Override
+  public IdentityKey getIdentityKey() {
+    return IdentityKey.of(
+        getClass().getName(),
+        ImmutableSet.copyOf(scopes),
+        scopesRequired,
+        appIdentityServiceClassName);
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(scopes, scopesRequired, appIdentityServiceClassName);
@@ -32,17 +32,23 @@
 package com.google.auth;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /** Represents an abstract authorized identity instance. */
 public abstract class Credentials implements Serializable {
 
   private static final long serialVersionUID = 808575179767517313L;
 
+  private transient volatile IdentityKey instanceIdentityKey;
+
   /**
    * A constant string name describing the authentication technology.
    *
@@ -54,6 +60,29 @@ public abstract class Credentials implements Serializable {
    */
   public abstract String getAuthenticationType();
 
+  /**
+   * Returns a key identifying the principal of these credentials and the access granted to it,
+   * which does not change when tokens are refreshed.
+   *
+   * <p>Credentials types that can tell when two instances are equivalent override this method. By
+   * default the key is only equal to the key of this instance.
+   *
+   * @return The identity key.
+   */
+  public IdentityKey getIdentityKey() {
+    IdentityKey key = instanceIdentityKey;
+    if (key == null) {
+      synchronized (this) {
+        key = instanceIdentityKey;
+        if (key == null) {
+          key = IdentityKey.of(getClass().getName(), new Object());
+          instanceIdentityKey = key;
+        }
+      }
+    }
+    return key;
+  }
+
   /**
    * Get the current request metadata, refreshing tokens if required.
    *
@@ -100,6 +129,29 @@ public abstract class Credentials implements Serializable {
         });
   }
 
+  /**
+   * Get the current request metadata, waiting no longer than the given timeout.
+   *
+   * <p>The metadata is obtained through {@link #getRequestMetadata(URI, Executor,
+   * RequestMetadataCallback)}, so any blocking work runs on the executor rather than on the calling
+   * thread. If the metadata is not available in time, the caller stops waiting but the work is left
+   * to complete, so that later callers can benefit from it, for example from a refreshed token.
+   *
+   * @param uri URI of the entry point for the request.
+   * @param executor Executor to perform the request.
+   * @param timeout The maximum time to wait.
+   * @param unit The unit of the timeout.
+   * @return The request metadata used for populating headers or other context.
+   * @throws RequestMetadataTimeoutException if the metadata was not available before the timeout.
+   * @throws IOException if there was an error getting up-to-date access.
+   */
+  public Map<String, List<String>> getRequestMetadata(
+      URI uri, Executor executor, long timeout, TimeUnit unit) throws IOException {
+    AwaitingCallback callback = new AwaitingCallback();
+    getRequestMetadata(uri, executor, callback);
+    return callback.await(timeout, unit);
+  }
+
   /**
    * Call {@link #getRequestMetadata(URI)} and pass the result or error to the callback.
    *
@@ -164,4 +216,51 @@ public abstract class Credentials implements Serializable {
    * @throws IOException if there was an error getting up-to-date access.
    */
   public abstract void refresh() throws IOException;
+
+  /** Callback that lets the calling thread wait for the result, up to a timeout. */
+  private static class AwaitingCallback implements RequestMetadataCallback {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Map<String, List<String>> metadata;
+    private volatile Throwable failure;
+
+    @Override
+    public void onSuccess(Map<String, List<String>> metadata) {
+      this.metadata = metadata;
+      done.countDown();
+    }
+
+    @Override
+    public void onFailure(Throwable exception) {
+      this.failure = exception;
+      done.countDown();
+    }
+
+    Map<String, List<String>> await(long timeout, TimeUnit unit) throws IOException {
+      try {
+        if (!done.await(timeout, unit)) {
+          throw new RequestMetadataTimeoutException(
+              String.format(
+                  "Request metadata was not available within %d %s.",
+                  timeout, unit.toString().toLowerCase(Locale.ROOT)));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for request metadata.");
+      }
+      Throwable localFailure = failure;
+      if (localFailure == null) {
+        return metadata;
+      }
+      if (localFailure instanceof IOException) {
+        throw (IOException) localFailure;
+      }
+      if (localFailure instanceof RuntimeException) {
+        throw (RuntimeException) localFailure;
+      }
+      if (localFailure instanceof Error) {
+        throw (Error) localFailure;
+      }
+      throw new IOException(localFailure);
+    }
+  }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable key identifying the principal of {@link Credentials} and the access granted to it.
+ *
+ * <p>Unlike the credentials themselves, whose {@code equals} and {@code hashCode} can depend on the
+ * current access token, the key does not change when tokens are refreshed. Credentials with equal
+ * keys authorize requests in the same way, so the key can be used to share per-identity resources
+ * such as connection pools, clients or tokens across credentials instances.
+ *
+ * <p>The components of a key can be secrets, such as a refresh token, so {@link #toString()} only
+ * shows its type.
+ */
+public final class IdentityKey {
+
+  private final String type;
+  private final List<Object> components;
+
+  private IdentityKey(String type, Object[] components) {
+    if (type == null) {
+      throw new NullPointerException("type");
+    }
+    this.type = type;
+    this.components = Collections.unmodifiableList(Arrays.asList(components.clone()));
+  }
+
+  /**
+   * Creates a key.
+   *
+   * @param type the type of the identity, typically the class name of the credentials
+   * @param components immutable values identifying the principal and its access, compared with
+   *     {@code equals}. Null components are allowed.
+   * @return the key
+   */
+  public static IdentityKey of(String type, Object... components) {
+    return new IdentityKey(type, components);
+  }
+
+  /** Returns the type of the identity. */
+  public String getType() {
+    return type;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * type.hashCode() + components.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof IdentityKey)) {
+      return false;
+    }
+    IdentityKey other = (IdentityKey) obj;
+    return type.equals(other.type) && components.equals(other.components);
+  }
+
+  @Override
+  public String toString() {
+    return "IdentityKey{type=" + type + "}";
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class CredentialsTest {
+
+  private static final URI CALL_URI = URI.create("http://googleapis.com/testapi/v1/foo");
+  private static final Map<String, List<String>> METADATA =
+      Collections.singletonMap("Authorization", Collections.singletonList("Bearer token"));
+
+  @Test
+  public void getRequestMetadata_deadline_returnsMetadata() throws IOException {
+    Credentials credentials = new FakeCredentials(null);
+
+    Map<String, List<String>> metadata =
+        credentials.getRequestMetadata(CALL_URI, new DirectExecutor(), 1, TimeUnit.SECONDS);
+
+    assertSame(METADATA, metadata);
+  }
+
+  @Test
+  public void getRequestMetadata_deadline_propagatesFailure() {
+    IOException error = new IOException("error");
+    Credentials credentials = new FakeCredentials(error);
+
+    try {
+      credentials.getRequestMetadata(CALL_URI, new DirectExecutor(), 1, TimeUnit.SECONDS);
+      fail("Should throw");
+    } catch (IOException e) {
+      assertSame(error, e);
+    }
+  }
+
+  @Test
+  public void getRequestMetadata_deadline_timesOut() throws IOException {
+    Credentials credentials = new FakeCredentials(null);
+    QueueingExecutor executor = new QueueingExecutor();
+
+    try {
+      credentials.getRequestMetadata(CALL_URI, executor, 10, TimeUnit.MILLISECONDS);
+      fail("Should throw");
+    } catch (RequestMetadataTimeoutException e) {
+      // Expected
+    }
+    // The work is left to complete.
+    assertEquals(1, executor.tasks.size());
+  }
+
+  @Test
+  public void getRequestMetadata_deadline_reportsTimeoutInItsUnit() throws IOException {
+    Credentials credentials = new FakeCredentials(null);
+
+    try {
+      credentials.getRequestMetadata(CALL_URI, new QueueingExecutor(), 500, TimeUnit.MICROSECONDS);
+      fail("Should throw");
+    } catch (RequestMetadataTimeoutException e) {
+      assertEquals("Request metadata was not available within 500 microseconds.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void getIdentityKey_default_isStableAndPerInstance() {
+    FakeCredentials credentials = new FakeCredentials(null);
+    IdentityKey key = credentials.getIdentityKey();
+
+    assertSame(key, credentials.getIdentityKey());
+    assertNotEquals(key, new FakeCredentials(null).getIdentityKey());
+    assertEquals(FakeCredentials.class.getName(), key.getType());
+  }
+
+  @Test
+  public void identityKey_comparesComponents() {
+    IdentityKey key = IdentityKey.of("type", "principal", null, 42);
+
+    assertEquals(key, IdentityKey.of("type", "principal", null, 42));
+    assertEquals(key.hashCode(), IdentityKey.of("type", "principal", null, 42).hashCode());
+    assertNotEquals(key, IdentityKey.of("type", "principal", null, 43));
+    assertNotEquals(key, IdentityKey.of("other", "principal", null, 42));
+    assertFalse(key.toString().contains("principal"));
+  }
+
+  private static class FakeCredentials extends Credentials {
+    private static final long serialVersionUID = 1L;
+
+    private final IOException error;
+
+    FakeCredentials(IOException error) {
+      this.error = error;
+    }
+
+    @Override
+    public String getAuthenticationType() {
+      return "Fake";
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
+      if (error != null) {
+        throw error;
+      }
+      return METADATA;
+    }
+
+    @Override
+    public boolean hasRequestMetadata() {
+      return true;
+    }
+
+    @Override
+    public boolean hasRequestMetadataOnly() {
+      return true;
+    }
+
+    @Override
+    public void refresh() {}
+  }
+
+  private static class DirectExecutor implements Executor {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  }
+
+  private static class QueueingExecutor implements Executor {
+    final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for deriving the refresh margin of {@link OAuth2Credentials} from observed refreshes.
+ *
+ * <p>By default a token is refreshed once it has less than five minutes of validity left, whatever
+ * the token source. Once enabled with {@link
+ * OAuth2Credentials#enableAdaptiveMargin(AdaptiveMarginOptions)}, the credentials track the latency
+ * and failure rate of their own refreshes instead, and refresh when the remaining validity drops
+ * below a multiple of the typical refresh latency, scaled up by the expected number of attempts.
+ * Failed refreshes count towards the latency as well. The margin is kept between the configured
+ * bounds and starts at the maximum until refreshes have been observed. With background refresh
+ * enabled, refreshes are scheduled at least this margin ahead of expiry.
+ *
+ * <pre><code>
+ * credentials.enableAdaptiveMargin(AdaptiveMarginOptions.newBuilder()
+ *     .setMinMarginMillis(TimeUnit.SECONDS.toMillis(30))
+ *     .setMaxMarginMillis(TimeUnit.MINUTES.toMillis(5))
+ *     .build());
+ * </code></pre>
+ */
+public final class AdaptiveMarginOptions {
+
+  static final long DEFAULT_MIN_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  static final long DEFAULT_MAX_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  static final int DEFAULT_LATENCY_MULTIPLIER = 10;
+
+  private final long minMarginMillis;
+  private final long maxMarginMillis;
+  private final int latencyMultiplier;
+
+  private AdaptiveMarginOptions(Builder builder) {
+    Preconditions.checkArgument(
+        builder.minMarginMillis <= builder.maxMarginMillis,
+        "minMarginMillis must not be greater than maxMarginMillis");
+    this.minMarginMillis = builder.minMarginMillis;
+    this.maxMarginMillis = builder.maxMarginMillis;
+    this.latencyMultiplier = builder.latencyMultiplier;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /**
+   * Returns the lower bound of the refresh margin.
+   *
+   * @return the minimum margin in milliseconds
+   */
+  public long getMinMarginMillis() {
+    return minMarginMillis;
+  }
+
+  /**
+   * Returns the upper bound of the refresh margin, also used before any refresh was observed.
+   *
+   * @return the maximum margin in milliseconds
+   */
+  public long getMaxMarginMillis() {
+    return maxMarginMillis;
+  }
+
+  /**
+   * Returns how many typical refresh latencies of validity are kept in reserve.
+   *
+   * @return the latency multiplier
+   */
+  public int getLatencyMultiplier() {
+    return latencyMultiplier;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("minMarginMillis", minMarginMillis)
+        .add("maxMarginMillis", maxMarginMillis)
+        .add("latencyMultiplier", latencyMultiplier)
+        .toString();
+  }
+
+  public static class Builder {
+    private long minMarginMillis = DEFAULT_MIN_MARGIN_MILLIS;
+    private long maxMarginMillis = DEFAULT_MAX_MARGIN_MILLIS;
+    private int latencyMultiplier = DEFAULT_LATENCY_MULTIPLIER;
+
+    protected Builder() {}
+
+    protected Builder(AdaptiveMarginOptions options) {
+      this.minMarginMillis = options.minMarginMillis;
+      this.maxMarginMillis = options.maxMarginMillis;
+      this.latencyMultiplier = options.latencyMultiplier;
+    }
+
+    /**
+     * Set the lower bound of the refresh margin. Defaults to 10 seconds.
+     *
+     * @param minMarginMillis the minimum margin in milliseconds
+     * @return the builder
+     */
+    public Builder setMinMarginMillis(long minMarginMillis) {
+      Preconditions.checkArgument(minMarginMillis >= 0, "minMarginMillis must be >= 0");
+      this.minMarginMillis = minMarginMillis;
+      return this;
+    }
+
+    public long getMinMarginMillis() {
+      return minMarginMillis;
+    }
+
+    /**
+     * Set the upper bound of the refresh margin. Defaults to 5 minutes.
+     *
+     * @param maxMarginMillis the maximum margin in milliseconds
+     * @return the builder
+     */
+    public Builder setMaxMarginMillis(long maxMarginMillis) {
+      Preconditions.checkArgument(maxMarginMillis >= 0, "maxMarginMillis must be >= 0");
+      this.maxMarginMillis = maxMarginMillis;
+      return this;
+    }
+
+    public long getMaxMarginMillis() {
+      return maxMarginMillis;
+    }
+
+    /**
+     * Set how many typical refresh latencies of validity are kept in reserve. Defaults to 10.
+     *
+     * @param latencyMultiplier the latency multiplier
+     * @return the builder
+     */
+    public Builder setLatencyMultiplier(int latencyMultiplier) {
+      Preconditions.checkArgument(latencyMultiplier > 0, "latencyMultiplier must be > 0");
+      this.latencyMultiplier = latencyMultiplier;
+      return this;
+    }
+
+    public int getLatencyMultiplier() {
+      return latencyMultiplier;
+    }
+
+    public AdaptiveMarginOptions build() {
+      return new AdaptiveMarginOptions(this);
+    }
+  }
+}
@@ -31,6 +31,7 @@
 
 package com.google.auth.oauth2;
 
+import com.google.auth.IdentityKey;
 import com.google.auth.ServiceAccountSigner;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
@@ -163,6 +164,12 @@ class AppEngineCredentials extends GoogleCredentials implements ServiceAccountSi
     }
   }
 
+  /** Returns a key identifying the scopes of the App Engine service account. */
+  @Override
+  public IdentityKey getIdentityKey() {
+    return IdentityKey.of(getClass().getName(), ImmutableSet.copyOf(scopes), scopesRequired);
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(scopes, scopesRequired);
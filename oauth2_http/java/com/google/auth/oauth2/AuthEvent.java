@@ -0,0 +1,93 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+/**
+ * Marks the duration and outcome of an authentication operation for profilers.
+ *
+ * <p>This implementation does nothing. On Java 11 and later the library JAR, which is a
+ * multi-release JAR, replaces this class with one emitting a Java Flight Recorder event per
+ * operation, so that time spent on authentication can be attributed in continuous profiles. Events
+ * are only allocated while a recording enables them.
+ *
+ * <pre><code>
+ * AuthEvent event = AuthEvent.begin(AuthEvent.Operation.REFRESH, getClass().getName());
+ * boolean success = false;
+ * try {
+ *   ...
+ *   success = true;
+ * } finally {
+ *   event.end(success);
+ * }
+ * </code></pre>
+ */
+class AuthEvent {
+
+  /** The instrumented operations. */
+  enum Operation {
+    /** A refresh of the access token of {@link OAuth2Credentials}. */
+    REFRESH,
+    /** The signing of a token request assertion by {@link ServiceAccountCredentials}. */
+    CREATE_ASSERTION,
+    /** The signing of bytes by {@link ServiceAccountCredentials#sign(byte[])}. */
+    SIGN,
+    /** The verification of a token by {@link TokenVerifier}. */
+    VERIFY,
+    /** One step of the Application Default Credentials discovery. */
+    DEFAULT_CREDENTIALS_DISCOVERY,
+    /** A ping of the metadata server to detect Google Compute Engine. */
+    COMPUTE_ENGINE_PING
+  }
+
+  private static final AuthEvent NOOP = new AuthEvent();
+
+  private AuthEvent() {}
+
+  /**
+   * Starts timing an operation.
+   *
+   * @param operation the operation
+   * @param detail the credential type, discovery step or endpoint the operation applies to, or null
+   * @return the event to end once the operation completes
+   */
+  static AuthEvent begin(Operation operation, String detail) {
+    return NOOP;
+  }
+
+  /**
+   * Ends the operation, recording the event if enabled.
+   *
+   * @param success whether the operation succeeded, or for discovery steps whether they found
+   *     credentials
+   */
+  void end(boolean success) {}
+}
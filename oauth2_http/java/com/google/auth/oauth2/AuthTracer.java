@@ -0,0 +1,118 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.auth.Credentials;
+
+/**
+ * Opens tracing spans around the token requests of the library, and propagates the trace context to
+ * the requests it sends.
+ *
+ * <p>All methods do nothing by default, so the library is not tied to a tracing framework. An
+ * implementation typically starts a span as a child of the span current on the calling thread,
+ * makes it current until it ends, and writes the trace context headers of the current span in
+ * {@link #injectTraceHeaders(HttpRequest)}. The tracer is looked up once with {@link
+ * java.util.ServiceLoader}, and can be replaced with {@link #setDefault(AuthTracer)}.
+ *
+ * <p>A span is started, used to send requests and ended on the same thread. Implementations must be
+ * thread-safe.
+ */
+public abstract class AuthTracer {
+
+  /** Name of the spans around the refresh of an access token. */
+  public static final String REFRESH_SPAN = "google.auth.refresh";
+
+  /** Name of the spans around the signing of bytes. */
+  public static final String SIGN_SPAN = "google.auth.sign";
+
+  /** Name of the spans around the request of an ID token. */
+  public static final String ID_TOKEN_SPAN = "google.auth.idToken";
+
+  private static final AuthTracer NOOP = new AuthTracer() {};
+
+  private static volatile AuthTracer defaultTracer =
+      OAuth2Credentials.getFromServiceLoader(AuthTracer.class, NOOP);
+
+  protected AuthTracer() {}
+
+  /** Returns the tracer the library currently reports to. */
+  public static AuthTracer getDefault() {
+    return defaultTracer;
+  }
+
+  /**
+   * Replaces the tracer the library reports to.
+   *
+   * @param tracer the tracer, or null to stop tracing
+   */
+  public static void setDefault(AuthTracer tracer) {
+    defaultTracer = tracer == null ? NOOP : tracer;
+  }
+
+  /**
+   * Starts a span.
+   *
+   * @param name the name of the span, such as {@link #REFRESH_SPAN}
+   * @param credentials the credentials performing the operation
+   * @return the span, which is ended once the operation completes
+   */
+  public Span startSpan(String name, Credentials credentials) {
+    return Span.NOOP;
+  }
+
+  /**
+   * Called before the library sends a request to a token, signing or metadata server, to add the
+   * headers propagating the current trace context.
+   *
+   * @param request the request about to be sent
+   */
+  public void injectTraceHeaders(HttpRequest request) {}
+
+  /** A span started by {@link AuthTracer#startSpan(String, Credentials)}. */
+  public abstract static class Span {
+
+    static final Span NOOP = new Span() {};
+
+    protected Span() {}
+
+    /**
+     * Records the failure of the operation. Called at most once, before {@link #end()}.
+     *
+     * @param error the failure
+     */
+    public void recordError(Throwable error) {}
+
+    /** Ends the span. */
+    public void end() {}
+  }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for refreshing {@link OAuth2Credentials} in the background, ahead of token expiry.
+ *
+ * <p>Once enabled with {@link OAuth2Credentials#enableBackgroundRefresh(BackgroundRefreshOptions)},
+ * a refresh is scheduled on the given executor before the current token enters its refresh margin.
+ * The scheduled time is moved earlier by a random jitter so that many credentials created at the
+ * same time do not all refresh at once. The margin is capped at half the lifetime of each token,
+ * and a refresh is never scheduled sooner than {@link #getRetryDelayMillis()}. Request threads keep
+ * receiving the current token while it is still valid; they only wait for a refresh once the token
+ * is about to expire. A failed background refresh is retried after {@link #getRetryDelayMillis()}.
+ *
+ * <p>The refresh itself runs on {@link #getRefreshExecutor()}, which defaults to the scheduler. On
+ * Java 21 or later {@link Builder#setUseVirtualThreads(boolean)} runs each refresh on its own
+ * virtual thread instead, so that a slow token endpoint does not tie up a platform thread.
+ *
+ * <p>In stale-while-revalidate mode the current token keeps being served until shortly before its
+ * hard expiry, {@link #getMinimumValidityMillis()}, and it is not discarded while a refresh is in
+ * progress or after a refresh fails. A slow or unavailable token endpoint then only delays the
+ * refresh instead of failing requests.
+ *
+ * <p>With {@link Builder#setWarmUpLeadMillis(long)} a connection to the token endpoint is opened
+ * shortly before each scheduled refresh, so that the refresh reuses it instead of waiting for the
+ * TCP and TLS handshakes.
+ *
+ * <pre><code>
+ * BackgroundRefreshOptions options = BackgroundRefreshOptions.newBuilder()
+ *     .setScheduler(scheduledExecutorService)
+ *     .setRefreshMarginMillis(TimeUnit.MINUTES.toMillis(10))
+ *     .setMaxJitterMillis(TimeUnit.MINUTES.toMillis(1))
+ *     .build();
+ * credentials.enableBackgroundRefresh(options);
+ * </code></pre>
+ */
+public final class BackgroundRefreshOptions {
+
+  static final long DEFAULT_REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  static final long DEFAULT_MAX_JITTER_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  static final long DEFAULT_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  static final long DEFAULT_MINIMUM_VALIDITY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final ScheduledExecutorService scheduler;
+  // As set on the builder, for toBuilder().
+  private final Executor configuredRefreshExecutor;
+  private final boolean useVirtualThreads;
+  private final Executor refreshExecutor;
+  private final long refreshMarginMillis;
+  private final long maxJitterMillis;
+  private final long retryDelayMillis;
+  private final boolean staleWhileRevalidate;
+  private final long minimumValidityMillis;
+  private final long warmUpLeadMillis;
+
+  private BackgroundRefreshOptions(Builder builder) {
+    this.scheduler = Preconditions.checkNotNull(builder.scheduler, "scheduler");
+    this.configuredRefreshExecutor = builder.refreshExecutor;
+    this.useVirtualThreads = builder.useVirtualThreads;
+    Executor executor = builder.refreshExecutor != null ? builder.refreshExecutor : scheduler;
+    this.refreshExecutor =
+        useVirtualThreads && VirtualThreads.isSupported()
+            ? VirtualThreads.executor(executor)
+            : executor;
+    this.refreshMarginMillis = builder.refreshMarginMillis;
+    this.maxJitterMillis = builder.maxJitterMillis;
+    this.retryDelayMillis = builder.retryDelayMillis;
+    this.staleWhileRevalidate = builder.staleWhileRevalidate;
+    this.minimumValidityMillis = builder.minimumValidityMillis;
+    this.warmUpLeadMillis = builder.warmUpLeadMillis;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /**
+   * Returns the executor used to run background refreshes.
+   *
+   * @return the scheduler
+   */
+  public ScheduledExecutorService getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Returns the executor that background refreshes run on.
+   *
+   * @return the refresh executor
+   */
+  public Executor getRefreshExecutor() {
+    return refreshExecutor;
+  }
+
+  /**
+   * Returns how long before token expiry a background refresh is due, at most half the lifetime of
+   * the token.
+   *
+   * @return the refresh margin in milliseconds
+   */
+  public long getRefreshMarginMillis() {
+    return refreshMarginMillis;
+  }
+
+  /**
+   * Returns the upper bound of the random delay subtracted from each scheduled refresh time.
+   *
+   * @return the maximum jitter in milliseconds
+   */
+  public long getMaxJitterMillis() {
+    return maxJitterMillis;
+  }
+
+  /**
+   * Returns the delay before a failed background refresh is retried, which is also the shortest
+   * delay before any scheduled refresh.
+   *
+   * @return the retry delay in milliseconds
+   */
+  public long getRetryDelayMillis() {
+    return retryDelayMillis;
+  }
+
+  /**
+   * Returns whether the current token is served until its hard expiry while it is being refreshed.
+   *
+   * @return true if stale-while-revalidate mode is enabled
+   */
+  public boolean isStaleWhileRevalidate() {
+    return staleWhileRevalidate;
+  }
+
+  /**
+   * Returns the validity a token must have left to be served in stale-while-revalidate mode.
+   *
+   * @return the minimum validity in milliseconds
+   */
+  public long getMinimumValidityMillis() {
+    return minimumValidityMillis;
+  }
+
+  /**
+   * Returns how long before a scheduled refresh the connection to the token endpoint is opened, or
+   * 0 if it is not opened ahead of the refresh.
+   *
+   * @return the warm-up lead time in milliseconds
+   */
+  public long getWarmUpLeadMillis() {
+    return warmUpLeadMillis;
+  }
+
+  /** Returns a random jitter in {@code [0, maxJitterMillis]}. */
+  long nextJitterMillis() {
+    if (maxJitterMillis == 0) {
+      return 0;
+    }
+    return ThreadLocalRandom.current().nextLong(maxJitterMillis + 1);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("scheduler", scheduler)
+        .add("refreshExecutor", refreshExecutor)
+        .add("refreshMarginMillis", refreshMarginMillis)
+        .add("maxJitterMillis", maxJitterMillis)
+        .add("retryDelayMillis", retryDelayMillis)
+        .add("staleWhileRevalidate", staleWhileRevalidate)
+        .add("minimumValidityMillis", minimumValidityMillis)
+        .add("warmUpLeadMillis", warmUpLeadMillis)
+        .toString();
+  }
+
+  public static class Builder {
+    private ScheduledExecutorService scheduler;
+    private Executor refreshExecutor;
+    private boolean useVirtualThreads;
+    private long refreshMarginMillis = DEFAULT_REFRESH_MARGIN_MILLIS;
+    private long maxJitterMillis = DEFAULT_MAX_JITTER_MILLIS;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+    private boolean staleWhileRevalidate;
+    private long minimumValidityMillis = DEFAULT_MINIMUM_VALIDITY_MILLIS;
+    private long warmUpLeadMillis;
+
+    protected Builder() {}
+
+    protected Builder(BackgroundRefreshOptions options) {
+      this.scheduler = options.scheduler;
+      this.refreshExecutor = options.configuredRefreshExecutor;
+      this.useVirtualThreads = options.useVirtualThreads;
+      this.refreshMarginMillis = options.refreshMarginMillis;
+      this.maxJitterMillis = options.maxJitterMillis;
+      this.retryDelayMillis = options.retryDelayMillis;
+      this.staleWhileRevalidate = options.staleWhileRevalidate;
+      this.minimumValidityMillis = options.minimumValidityMillis;
+      this.warmUpLeadMillis = options.warmUpLeadMillis;
+    }
+
+    /**
+     * Set the executor used to schedule and run background refreshes. Required.
+     *
+     * @param scheduler the scheduler
+     * @return the builder
+     */
+    public Builder setScheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = Preconditions.checkNotNull(scheduler);
+      return this;
+    }
+
+    public ScheduledExecutorService getScheduler() {
+      return scheduler;
+    }
+
+    /**
+     * Set the executor that background refreshes run on. Defaults to the scheduler.
+     *
+     * @param refreshExecutor the refresh executor
+     * @return the builder
+     */
+    public Builder setRefreshExecutor(Executor refreshExecutor) {
+      this.refreshExecutor = refreshExecutor;
+      return this;
+    }
+
+    public Executor getRefreshExecutor() {
+      return refreshExecutor;
+    }
+
+    /**
+     * Set whether each background refresh runs on a new virtual thread. Only takes effect on Java
+     * 21 or later; on older runtimes, or if a virtual thread cannot be started, the refresh
+     * executor is used. Defaults to false.
+     *
+     * @param useVirtualThreads whether to refresh on virtual threads
+     * @return the builder
+     */
+    public Builder setUseVirtualThreads(boolean useVirtualThreads) {
+      this.useVirtualThreads = useVirtualThreads;
+      return this;
+    }
+
+    public boolean isUseVirtualThreads() {
+      return useVirtualThreads;
+    }
+
+    /**
+     * Set how long before token expiry a background refresh is due. A margin shorter than the one
+     * below which callers wait for a refresh, 5 minutes or the adaptive margin, is raised to it.
+     * Tokens with a lifetime shorter than twice the margin are refreshed halfway through their
+     * lifetime instead. Defaults to 10 minutes.
+     *
+     * @param refreshMarginMillis the refresh margin in milliseconds
+     * @return the builder
+     */
+    public Builder setRefreshMarginMillis(long refreshMarginMillis) {
+      Preconditions.checkArgument(refreshMarginMillis >= 0, "refreshMarginMillis must be >= 0");
+      this.refreshMarginMillis = refreshMarginMillis;
+      return this;
+    }
+
+    public long getRefreshMarginMillis() {
+      return refreshMarginMillis;
+    }
+
+    /**
+     * Set the upper bound of the random delay subtracted from each scheduled refresh time. Defaults
+     * to 1 minute.
+     *
+     * @param maxJitterMillis the maximum jitter in milliseconds
+     * @return the builder
+     */
+    public Builder setMaxJitterMillis(long maxJitterMillis) {
+      Preconditions.checkArgument(maxJitterMillis >= 0, "maxJitterMillis must be >= 0");
+      this.maxJitterMillis = maxJitterMillis;
+      return this;
+    }
+
+    public long getMaxJitterMillis() {
+      return maxJitterMillis;
+    }
+
+    /**
+     * Set the delay before a failed background refresh is retried, which is also the shortest delay
+     * before any scheduled refresh. Defaults to 30 seconds.
+     *
+     * @param retryDelayMillis the retry delay in milliseconds
+     * @return the builder
+     */
+    public Builder setRetryDelayMillis(long retryDelayMillis) {
+      Preconditions.checkArgument(retryDelayMillis >= 0, "retryDelayMillis must be >= 0");
+      this.retryDelayMillis = retryDelayMillis;
+      return this;
+    }
+
+    public long getRetryDelayMillis() {
+      return retryDelayMillis;
+    }
+
+    /**
+     * Set whether the current token is served until its hard expiry, rather than until shortly
+     * before it, and kept while a refresh is in progress or after a refresh fails. Defaults to
+     * false.
+     *
+     * @param staleWhileRevalidate whether to enable stale-while-revalidate mode
+     * @return the builder
+     */
+    public Builder setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+      this.staleWhileRevalidate = staleWhileRevalidate;
+      return this;
+    }
+
+    public boolean isStaleWhileRevalidate() {
+      return staleWhileRevalidate;
+    }
+
+    /**
+     * Set the validity a token must have left to be served in stale-while-revalidate mode. Callers
+     * wait for a refresh below it, so that a token does not expire on its way to the server.
+     * Defaults to 30 seconds.
+     *
+     * @param minimumValidityMillis the minimum validity in milliseconds
+     * @return the builder
+     */
+    public Builder setMinimumValidityMillis(long minimumValidityMillis) {
+      Preconditions.checkArgument(minimumValidityMillis >= 0, "minimumValidityMillis must be >= 0");
+      this.minimumValidityMillis = minimumValidityMillis;
+      return this;
+    }
+
+    public long getMinimumValidityMillis() {
+      return minimumValidityMillis;
+    }
+
+    /**
+     * Set how long before each scheduled refresh a connection to the token endpoint is opened, so
+     * that the refresh does not wait for the TCP and TLS handshakes. The lead time should be
+     * shorter than the time idle connections are kept alive, a few seconds by default. Defaults to
+     * 0, which does not open a connection ahead of the refresh.
+     *
+     * @param warmUpLeadMillis the warm-up lead time in milliseconds
+     * @return the builder
+     */
+    public Builder setWarmUpLeadMillis(long warmUpLeadMillis) {
+      Preconditions.checkArgument(warmUpLeadMillis >= 0, "warmUpLeadMillis must be >= 0");
+      this.warmUpLeadMillis = warmUpLeadMillis;
+      return this;
+    }
+
+    public long getWarmUpLeadMillis() {
+      return warmUpLeadMillis;
+    }
+
+    public BackgroundRefreshOptions build() {
+      return new BackgroundRefreshOptions(this);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for suspending the refreshes of {@link OAuth2Credentials} after a failure.
+ *
+ * <p>Once enabled with {@link OAuth2Credentials#enableCircuitBreaker(CircuitBreakerOptions)}, a
+ * failed refresh opens the circuit breaker for a window during which no refresh is attempted:
+ * callers still holding an unexpired token keep receiving it, and other callers fail fast with an
+ * {@link java.io.IOException} caused by the last failure. The first refresh after the window acts
+ * as a probe. If it succeeds the breaker closes, otherwise it opens again for a window grown by the
+ * multiplier, up to the maximum.
+ *
+ * <pre><code>
+ * credentials.enableCircuitBreaker(CircuitBreakerOptions.newBuilder()
+ *     .setInitialWindowMillis(TimeUnit.SECONDS.toMillis(1))
+ *     .setMaxWindowMillis(TimeUnit.MINUTES.toMillis(1))
+ *     .build());
+ * </code></pre>
+ */
+public final class CircuitBreakerOptions {
+
+  static final long DEFAULT_INITIAL_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(1);
+  static final long DEFAULT_MAX_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  static final double DEFAULT_WINDOW_MULTIPLIER = 2.0;
+
+  private final long initialWindowMillis;
+  private final long maxWindowMillis;
+  private final double windowMultiplier;
+
+  private CircuitBreakerOptions(Builder builder) {
+    Preconditions.checkArgument(
+        builder.initialWindowMillis <= builder.maxWindowMillis,
+        "initialWindowMillis must not be greater than maxWindowMillis");
+    this.initialWindowMillis = builder.initialWindowMillis;
+    this.maxWindowMillis = builder.maxWindowMillis;
+    this.windowMultiplier = builder.windowMultiplier;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /**
+   * Returns how long refreshes are suspended after the first failure.
+   *
+   * @return the initial window in milliseconds
+   */
+  public long getInitialWindowMillis() {
+    return initialWindowMillis;
+  }
+
+  /**
+   * Returns the upper bound of the window refreshes are suspended for.
+   *
+   * @return the maximum window in milliseconds
+   */
+  public long getMaxWindowMillis() {
+    return maxWindowMillis;
+  }
+
+  /**
+   * Returns the factor the window grows by after each consecutive failure.
+   *
+   * @return the window multiplier
+   */
+  public double getWindowMultiplier() {
+    return windowMultiplier;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("initialWindowMillis", initialWindowMillis)
+        .add("maxWindowMillis", maxWindowMillis)
+        .add("windowMultiplier", windowMultiplier)
+        .toString();
+  }
+
+  public static class Builder {
+    private long initialWindowMillis = DEFAULT_INITIAL_WINDOW_MILLIS;
+    private long maxWindowMillis = DEFAULT_MAX_WINDOW_MILLIS;
+    private double windowMultiplier = DEFAULT_WINDOW_MULTIPLIER;
+
+    protected Builder() {}
+
+    protected Builder(CircuitBreakerOptions options) {
+      this.initialWindowMillis = options.initialWindowMillis;
+      this.maxWindowMillis = options.maxWindowMillis;
+      this.windowMultiplier = options.windowMultiplier;
+    }
+
+    /**
+     * Set how long refreshes are suspended after the first failure. Defaults to 1 second.
+     *
+     * @param initialWindowMillis the initial window in milliseconds
+     * @return the builder
+     */
+    public Builder setInitialWindowMillis(long initialWindowMillis) {
+      Preconditions.checkArgument(initialWindowMillis > 0, "initialWindowMillis must be > 0");
+      this.initialWindowMillis = initialWindowMillis;
+      return this;
+    }
+
+    public long getInitialWindowMillis() {
+      return initialWindowMillis;
+    }
+
+    /**
+     * Set the upper bound of the window refreshes are suspended for. Defaults to 1 minute.
+     *
+     * @param maxWindowMillis the maximum window in milliseconds
+     * @return the builder
+     */
+    public Builder setMaxWindowMillis(long maxWindowMillis) {
+      Preconditions.checkArgument(maxWindowMillis > 0, "maxWindowMillis must be > 0");
+      this.maxWindowMillis = maxWindowMillis;
+      return this;
+    }
+
+    public long getMaxWindowMillis() {
+      return maxWindowMillis;
+    }
+
+    /**
+     * Set the factor the window grows by after each consecutive failure. Defaults to 2.
+     *
+     * @param windowMultiplier the window multiplier
+     * @return the builder
+     */
+    public Builder setWindowMultiplier(double windowMultiplier) {
+      Preconditions.checkArgument(windowMultiplier >= 1, "windowMultiplier must be >= 1");
+      this.windowMultiplier = windowMultiplier;
+      return this;
+    }
+
+    public double getWindowMultiplier() {
+      return windowMultiplier;
+    }
+
+    public CircuitBreakerOptions build() {
+      return new CircuitBreakerOptions(this);
+    }
+  }
+}
@@ -38,8 +38,8 @@ import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpStatusCodes;
-import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.util.GenericData;
+import com.google.auth.IdentityKey;
 import com.google.auth.ServiceAccountSigner;
 import com.google.auth.http.HttpTransportFactory;
 import com.google.common.annotations.Beta;
@@ -177,35 +177,43 @@ public class ComputeEngineCredentials extends GoogleCredentials
   @Override
   public IdToken idTokenWithAudience(String targetAudience, List<IdTokenProvider.Option> options)
       throws IOException {
-    GenericUrl documentUrl = new GenericUrl(getIdentityDocumentUrl());
-    if (options != null) {
-      if (options.contains(IdTokenProvider.Option.FORMAT_FULL)) {
-        documentUrl.set("format", "full");
+    AuthTracer.Span span = AuthTracer.getDefault().startSpan(AuthTracer.ID_TOKEN_SPAN, this);
+    try {
+      GenericUrl documentUrl = new GenericUrl(getIdentityDocumentUrl());
+      if (options != null) {
+        if (options.contains(IdTokenProvider.Option.FORMAT_FULL)) {
+          documentUrl.set("format", "full");
+        }
+        if (options.contains(IdTokenProvider.Option.LICENSES_TRUE)) {
+          // license will only get returned if format is also full
+          documentUrl.set("format", "full");
+          documentUrl.set("license", "TRUE");
+        }
       }
-      if (options.contains(IdTokenProvider.Option.LICENSES_TRUE)) {
-        // license will only get returned if format is also full
-        documentUrl.set("format", "full");
-        documentUrl.set("license", "TRUE");
+      documentUrl.set("audience", targetAudience);
+      HttpResponse response = getMetadataResponse(documentUrl.toString());
+      InputStream content = response.getContent();
+      if (content == null) {
+        throw new IOException("Empty content from metadata token server request.");
       }
+      String rawToken = response.parseAsString();
+      return IdToken.create(rawToken);
+    } catch (IOException | RuntimeException e) {
+      span.recordError(e);
+      throw e;
+    } finally {
+      span.end();
     }
-    documentUrl.set("audience", targetAudience);
-    HttpResponse response = getMetadataResponse(documentUrl.toString());
-    InputStream content = response.getContent();
-    if (content == null) {
-      throw new IOException("Empty content from metadata token server request.");
-    }
-    String rawToken = response.parseAsString();
-    return IdToken.create(rawToken);
   }
 
   private HttpResponse getMetadataResponse(String url) throws IOException {
     GenericUrl genericUrl = new GenericUrl(url);
     HttpRequest request =
-        transportFactory.create().createRequestFactory().buildGetRequest(genericUrl);
-    JsonObjectParser parser = new JsonObjectParser(OAuth2Utils.JSON_FACTORY);
-    request.setParser(parser);
+        SharedHttpTransports.getRequestFactory(transportFactory).buildGetRequest(genericUrl);
+    request.setParser(OAuth2Utils.JSON_PARSER);
     request.getHeaders().set(METADATA_FLAVOR, GOOGLE);
     request.setThrowExceptionOnExecuteError(false);
+    AuthTracer.getDefault().injectTraceHeaders(request);
     HttpResponse response;
     try {
       response = request.execute();
@@ -228,6 +236,9 @@ public class ComputeEngineCredentials extends GoogleCredentials
 
     GenericUrl tokenUrl = new GenericUrl(getMetadataServerUrl(provider));
     for (int i = 1; i <= MAX_COMPUTE_PING_TRIES; ++i) {
+      AuthEvent event =
+          AuthEvent.begin(AuthEvent.Operation.COMPUTE_ENGINE_PING, tokenUrl.toString());
+      boolean onComputeEngine = false;
       try {
         HttpRequest request =
             transportFactory.create().createRequestFactory().buildGetRequest(tokenUrl);
@@ -239,7 +250,8 @@ public class ComputeEngineCredentials extends GoogleCredentials
           // Internet providers can return a generic response to all requests, so it is necessary
           // to check that metadata header is present also.
           HttpHeaders headers = response.getHeaders();
-          return OAuth2Utils.headersContainValue(headers, METADATA_FLAVOR, GOOGLE);
+          onComputeEngine = OAuth2Utils.headersContainValue(headers, METADATA_FLAVOR, GOOGLE);
+          return onComputeEngine;
         } finally {
           response.disconnect();
         }
@@ -251,6 +263,8 @@ public class ComputeEngineCredentials extends GoogleCredentials
             "Encountered an unexpected exception when determining"
                 + " if we are running on Google Compute Engine.",
             e);
+      } finally {
+        event.end(onComputeEngine);
       }
     }
     LOGGER.log(Level.FINE, "Failed to detect whether we are running on Google Compute Engine.");
@@ -289,6 +303,17 @@ public class ComputeEngineCredentials extends GoogleCredentials
         + "/computeMetadata/v1/instance/service-accounts/default/identity";
   }
 
+  /** Returns a key identifying the metadata server the tokens are obtained from. */
+  @Override
+  public IdentityKey getIdentityKey() {
+    return IdentityKey.of(getClass().getName(), getTokenServerEncodedUrl());
+  }
+
+  @Override
+  Object getTokenCacheKey() {
+    return getIdentityKey();
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(transportFactoryClassName);
@@ -356,14 +381,24 @@ public class ComputeEngineCredentials extends GoogleCredentials
    */
   @Override
   public byte[] sign(byte[] toSign) {
+    AuthTracer.Span span = AuthTracer.getDefault().startSpan(AuthTracer.SIGN_SPAN, this);
     try {
       String account = getAccount();
       return IamUtils.sign(
-          account, this, transportFactory.create(), toSign, Collections.<String, Object>emptyMap());
+          account,
+          this,
+          SharedHttpTransports.getTransport(transportFactory),
+          toSign,
+          Collections.<String, Object>emptyMap());
     } catch (SigningException ex) {
+      span.recordError(ex);
       throw ex;
     } catch (RuntimeException ex) {
-      throw new SigningException("Signing failed", ex);
+      SigningException error = new SigningException("Signing failed", ex);
+      span.recordError(error);
+      throw error;
+    } finally {
+      span.end();
     }
   }
 
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers credentials and library caches with the platform MBean server, so that their state can
+ * be inspected and their tokens or caches discarded from a JMX console.
+ *
+ * <p>Registration is optional and only references the credentials or verifier weakly, so a
+ * registered instance can still be garbage collected. Once it has been collected its MBean is
+ * unregistered on the next registration or access, or explicitly with {@link
+ * #unregister(ObjectName)}.
+ *
+ * <pre><code>
+ * ObjectName name = CredentialsMXBeans.register(credentials);
+ * ...
+ * CredentialsMXBeans.unregister(name);
+ * </code></pre>
+ */
+public final class CredentialsMXBeans {
+
+  static final String DOMAIN = "com.google.auth";
+
+  private static final AtomicLong nextId = new AtomicLong();
+  // Receives the references of collected subjects, so that their MBeans do not accumulate
+  private static final ReferenceQueue<Object> collectedSubjects = new ReferenceQueue<>();
+
+  private CredentialsMXBeans() {}
+
+  /**
+   * Registers an {@link OAuth2CredentialsMXBean} for the credentials.
+   *
+   * @param credentials the credentials to expose
+   * @return the name of the MBean
+   * @throws JMException if the MBean could not be registered
+   */
+  public static ObjectName register(OAuth2Credentials credentials) throws JMException {
+    Preconditions.checkNotNull(credentials);
+    return register(
+        new CredentialsBean(credentials),
+        "OAuth2Credentials",
+        credentials.getClass().getSimpleName());
+  }
+
+  /**
+   * Registers a {@link CredentialsCacheMXBean} for the cache of JWTs of the credentials.
+   *
+   * @param credentials the credentials whose cache to expose
+   * @return the name of the MBean
+   * @throws JMException if the MBean could not be registered
+   */
+  public static ObjectName register(ServiceAccountJwtAccessCredentials credentials)
+      throws JMException {
+    Preconditions.checkNotNull(credentials);
+    return register(
+        new CacheBean(credentials.getCredentialsCache(), credentials.getCacheAccessCounter()),
+        "Cache",
+        MetricsRecorder.JWT_ACCESS_CACHE);
+  }
+
+  /**
+   * Registers a {@link CredentialsCacheMXBean} for the public key cache of the verifier.
+   *
+   * @param verifier the verifier whose cache to expose
+   * @return the name of the MBean
+   * @throws JMException if the MBean could not be registered
+   */
+  public static ObjectName register(TokenVerifier verifier) throws JMException {
+    Preconditions.checkNotNull(verifier);
+    return register(
+        new CacheBean(verifier.getPublicKeyCache(), verifier.getPublicKeyCacheAccessCounter()),
+        "Cache",
+        MetricsRecorder.TOKEN_VERIFIER_PUBLIC_KEY_CACHE);
+  }
+
+  /**
+   * Unregisters an MBean registered by this class. Does nothing if it is no longer registered.
+   *
+   * @param name the name returned on registration
+   * @throws JMException if the MBean could not be unregistered
+   */
+  public static void unregister(ObjectName name) throws JMException {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (InstanceNotFoundException expected) {
+      // Already unregistered, possibly because the referent was collected.
+    }
+  }
+
+  private static ObjectName register(WeakBean<?> bean, String type, String name)
+      throws JMException {
+    unregisterCollected();
+    ObjectName objectName =
+        new ObjectName(
+            DOMAIN + ":type=" + type + ",name=" + name + ",id=" + nextId.incrementAndGet());
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    server.registerMBean(bean, objectName);
+    bean.reference.registered(server, objectName);
+    return objectName;
+  }
+
+  private static void unregisterCollected() {
+    Reference<?> reference;
+    while ((reference = collectedSubjects.poll()) != null) {
+      ((SubjectReference<?>) reference).unregister();
+    }
+  }
+
+  /** A reference to the subject of an MBean, which can unregister the MBean. */
+  private static final class SubjectReference<T> extends WeakReference<T> {
+
+    private volatile MBeanServer server;
+    private volatile ObjectName name;
+
+    SubjectReference(T referent) {
+      super(referent, collectedSubjects);
+    }
+
+    void registered(MBeanServer server, ObjectName name) {
+      this.server = server;
+      this.name = name;
+    }
+
+    void unregister() {
+      MBeanServer localServer = server;
+      if (localServer == null) {
+        return;
+      }
+      try {
+        localServer.unregisterMBean(name);
+      } catch (JMException expected) {
+        // Another caller unregistered it first.
+      }
+    }
+  }
+
+  /** An MBean referencing its subject weakly, and unregistering itself once it is collected. */
+  private abstract static class WeakBean<T> {
+
+    private final SubjectReference<T> reference;
+
+    WeakBean(T referent) {
+      this.reference = new SubjectReference<>(referent);
+    }
+
+    T get() {
+      T referent = reference.get();
+      if (referent == null) {
+        reference.unregister();
+        throw new IllegalStateException("The MBean subject has been garbage collected");
+      }
+      return referent;
+    }
+  }
+
+  private static final class CredentialsBean extends WeakBean<OAuth2Credentials>
+      implements OAuth2CredentialsMXBean {
+
+    CredentialsBean(OAuth2Credentials credentials) {
+      super(credentials);
+    }
+
+    @Override
+    public String getCredentialsType() {
+      return get().getClass().getName();
+    }
+
+    @Override
+    public long getTimeToExpiryMillis() {
+      Long expiresIn = get().getExpiresInMilliseconds();
+      return expiresIn == null ? -1 : Math.max(expiresIn, 0);
+    }
+
+    @Override
+    public long getLastRefreshDurationMillis() {
+      long durationNanos = get().getLastRefreshDurationNanos();
+      return durationNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+
+    @Override
+    public String getLastRefreshError() {
+      Exception error = get().getLastRefreshError();
+      return error == null ? null : error.toString();
+    }
+
+    @Override
+    public void refresh() throws IOException {
+      get().refresh();
+    }
+  }
+
+  private static final class CacheBean extends WeakBean<Cache<?, ?>>
+      implements CredentialsCacheMXBean {
+
+    private final CacheAccessCounter counter;
+
+    CacheBean(Cache<?, ?> cache, CacheAccessCounter counter) {
+      super(cache);
+      this.counter = counter;
+    }
+
+    @Override
+    public String getCacheName() {
+      return counter.getCacheName();
+    }
+
+    @Override
+    public long getSize() {
+      return get().size();
+    }
+
+    @Override
+    public long getHitCount() {
+      get();
+      return counter.getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+      get();
+      return counter.getMissCount();
+    }
+
+    @Override
+    public double getHitRate() {
+      get();
+      long hits = counter.getHitCount();
+      long lookups = hits + counter.getMissCount();
+      return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    @Override
+    public void invalidateAll() {
+      get().invalidateAll();
+    }
+  }
+}
@@ -149,6 +149,8 @@ class DefaultCredentialsProvider {
           Level.FINE,
           String.format("Attempting to load credentials from file: %s", credentialsPath));
       InputStream credentialsStream = null;
+      AuthEvent event =
+          AuthEvent.begin(AuthEvent.Operation.DEFAULT_CREDENTIALS_DISCOVERY, CREDENTIAL_ENV_VAR);
       try {
         File credentialsFile = new File(credentialsPath);
         if (!isFile(credentialsFile)) {
@@ -169,6 +171,7 @@ class DefaultCredentialsProvider {
       } catch (AccessControlException expected) {
         // Exception querying file system is expected on App-Engine
       } finally {
+        event.end(credentials != null);
         if (credentialsStream != null) {
           credentialsStream.close();
         }
@@ -179,6 +182,9 @@ class DefaultCredentialsProvider {
     if (credentials == null) {
       File wellKnownFileLocation = getWellKnownCredentialsFile();
       InputStream credentialsStream = null;
+      AuthEvent event =
+          AuthEvent.begin(
+              AuthEvent.Operation.DEFAULT_CREDENTIALS_DISCOVERY, WELL_KNOWN_CREDENTIALS_FILE);
       try {
         if (isFile(wellKnownFileLocation)) {
           LOGGER.log(
@@ -197,6 +203,7 @@ class DefaultCredentialsProvider {
       } catch (AccessControlException expected) {
         // Exception querying file system is expected on App-Engine
       } finally {
+        event.end(credentials != null);
         if (credentialsStream != null) {
           credentialsStream.close();
         }
@@ -207,20 +214,36 @@ class DefaultCredentialsProvider {
     // Then try GAE 7 standard environment
     if (credentials == null && isOnGAEStandard7() && !skipAppEngineCredentialsCheck()) {
       LOGGER.log(Level.FINE, "Attempting to load credentials from GAE 7 Standard");
-      credentials = tryGetAppEngineCredential();
+      AuthEvent event = AuthEvent.begin(AuthEvent.Operation.DEFAULT_CREDENTIALS_DISCOVERY, "GAE");
+      try {
+        credentials = tryGetAppEngineCredential();
+      } finally {
+        event.end(credentials != null);
+      }
     }
 
     // Then try Cloud Shell.  This must be done BEFORE checking
     // Compute Engine, as Cloud Shell runs on GCE VMs.
     if (credentials == null) {
       LOGGER.log(Level.FINE, "Attempting to load credentials from Cloud Shell");
-      credentials = tryGetCloudShellCredentials();
+      AuthEvent event =
+          AuthEvent.begin(AuthEvent.Operation.DEFAULT_CREDENTIALS_DISCOVERY, CLOUD_SHELL_ENV_VAR);
+      try {
+        credentials = tryGetCloudShellCredentials();
+      } finally {
+        event.end(credentials != null);
+      }
     }
 
     // Then try Compute Engine and GAE 8 standard environment
     if (credentials == null) {
       LOGGER.log(Level.FINE, "Attempting to load credentials from GCE");
-      credentials = tryGetComputeCredentials(transportFactory);
+      AuthEvent event = AuthEvent.begin(AuthEvent.Operation.DEFAULT_CREDENTIALS_DISCOVERY, "GCE");
+      try {
+        credentials = tryGetComputeCredentials(transportFactory);
+      } finally {
+        event.end(credentials != null);
+      }
     }
 
     return credentials;
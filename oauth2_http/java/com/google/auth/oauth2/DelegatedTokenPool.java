@@ -0,0 +1,371 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.auth.Credentials;
+import com.google.auth.IdentityKey;
+import com.google.auth.RequestMetadataCallback;
+import com.google.auth.oauth2.OAuth2Credentials.OAuthValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Access tokens of one service account acting on behalf of many users through domain-wide
+ * delegation.
+ *
+ * <p>Credentials created with {@link ServiceAccountCredentials#createDelegated(String)} for every
+ * user each carry their own copy of the service account state, lock and token, and are never
+ * evicted. The pool instead keeps a small entry per subject holding its current token, bounded in
+ * number and discarded when idle. Concurrent callers for the same subject wait for a single
+ * refresh, and the number of refreshes running at once across all subjects is bounded, so a burst
+ * of new subjects does not flood the token endpoint.
+ *
+ * <pre><code>
+ * DelegatedTokenPool pool = DelegatedTokenPool.newBuilder()
+ *     .setServiceAccountCredentials(serviceAccountCredentials)
+ *     .setMaximumSubjects(100000)
+ *     .build();
+ * Credentials userCredentials = pool.getCredentials("user@example.com");
+ * </code></pre>
+ */
+public final class DelegatedTokenPool {
+
+  static final long DEFAULT_MAXIMUM_SUBJECTS = 10000;
+  static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+  static final int DEFAULT_MAX_CONCURRENT_REFRESHES = 16;
+
+  private final ServiceAccountCredentials credentials;
+  private final Cache<String, Entry> entries;
+  private final Semaphore refreshPermits;
+  private final CacheAccessCounter accessCounter =
+      new CacheAccessCounter(MetricsRecorder.DELEGATED_TOKEN_POOL);
+  private final KeyedCredentials.Backend backend =
+      new KeyedCredentials.Backend() {
+        @Override
+        public IdentityKey getIdentityKey(String subject) {
+          return IdentityKey.of(
+              DelegatedTokenPool.class.getName(), credentials.getIdentityKey(), subject);
+        }
+
+        @Override
+        public boolean getRequestMetadataIfReady(
+            String subject, URI uri, Executor executor, RequestMetadataCallback callback) {
+          Map<String, List<String>> metadata = getCurrentRequestMetadata(subject);
+          if (metadata == null) {
+            return false;
+          }
+          callback.onSuccess(metadata);
+          return true;
+        }
+
+        @Override
+        public Map<String, List<String>> getRequestMetadata(String subject, URI uri)
+            throws IOException {
+          return DelegatedTokenPool.this.getRequestMetadata(subject);
+        }
+
+        @Override
+        public void refresh(String subject) throws IOException {
+          DelegatedTokenPool.this.refresh(subject);
+        }
+      };
+
+  private DelegatedTokenPool(Builder builder) {
+    this.credentials = Preconditions.checkNotNull(builder.credentials, "credentials");
+    Preconditions.checkArgument(
+        credentials.getServiceAccountUser() == null,
+        "credentials must not delegate to a user themselves");
+    this.entries =
+        CacheBuilder.newBuilder()
+            .maximumSize(builder.maximumSubjects)
+            .expireAfterAccess(builder.idleTimeoutMillis, TimeUnit.MILLISECONDS)
+            .build();
+    this.refreshPermits = new Semaphore(builder.maxConcurrentRefreshes, true);
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the service account credentials the tokens are obtained with.
+   *
+   * @return the service account credentials
+   */
+  public ServiceAccountCredentials getServiceAccountCredentials() {
+    return credentials;
+  }
+
+  /**
+   * Returns lightweight credentials for the subject, backed by this pool. They only hold the pool
+   * and the subject, so they can be created for every call. They cannot be serialized.
+   *
+   * @param subject the email of the user to act on behalf of
+   * @return the credentials of the subject
+   */
+  public Credentials getCredentials(String subject) {
+    return new KeyedCredentials(backend, Preconditions.checkNotNull(subject));
+  }
+
+  /**
+   * Returns a current access token for the subject, refreshing it if needed.
+   *
+   * @param subject the email of the user to act on behalf of
+   * @return the access token
+   * @throws IOException if the token could not be obtained
+   */
+  public AccessToken getAccessToken(String subject) throws IOException {
+    return getValue(subject, false).getAccessToken();
+  }
+
+  /**
+   * Returns the request metadata with a current access token for the subject, refreshing it if
+   * needed.
+   *
+   * @param subject the email of the user to act on behalf of
+   * @return the request metadata
+   * @throws IOException if the token could not be obtained
+   */
+  public Map<String, List<String>> getRequestMetadata(String subject) throws IOException {
+    return credentials.getRequestMetadata(getValue(subject, false));
+  }
+
+  /**
+   * Discards the token of the subject and obtains a new one.
+   *
+   * @param subject the email of the user to act on behalf of
+   * @throws IOException if the token could not be obtained
+   */
+  public void refresh(String subject) throws IOException {
+    getValue(subject, true);
+  }
+
+  /**
+   * Discards the token of the subject.
+   *
+   * @param subject the email of the user to act on behalf of
+   */
+  public void invalidate(String subject) {
+    entries.invalidate(subject);
+  }
+
+  /** Discards the tokens of all subjects. */
+  public void invalidateAll() {
+    entries.invalidateAll();
+  }
+
+  @VisibleForTesting
+  long size() {
+    return entries.size();
+  }
+
+  /** Returns the request metadata of the subject if its token is current, without blocking. */
+  private Map<String, List<String>> getCurrentRequestMetadata(String subject) {
+    Entry entry = entries.getIfPresent(subject);
+    OAuthValue value = entry == null ? null : entry.value;
+    if (!isUsable(value)) {
+      return null;
+    }
+    accessCounter.record(true);
+    return credentials.getRequestMetadata(value);
+  }
+
+  private OAuthValue getValue(String subject, boolean forceRefresh) throws IOException {
+    Entry entry = getEntry(Preconditions.checkNotNull(subject));
+    OAuthValue value = entry.value;
+    if (!forceRefresh && isUsable(value)) {
+      accessCounter.record(true);
+      return value;
+    }
+    MetricsRecorder.lock(entry.lock, credentials);
+    try {
+      // Another caller may have refreshed the token while this one waited for the lock.
+      OAuthValue current = entry.value;
+      boolean hit = forceRefresh ? current != value && isUsable(current) : isUsable(current);
+      accessCounter.record(hit);
+      if (!hit) {
+        current = obtainValue(subject);
+        entry.value = current;
+      }
+      return current;
+    } finally {
+      entry.lock.unlock();
+    }
+  }
+
+  private Entry getEntry(String subject) {
+    try {
+      return entries.get(
+          subject,
+          new Callable<Entry>() {
+            @Override
+            public Entry call() {
+              return new Entry();
+            }
+          });
+    } catch (ExecutionException e) {
+      // Creating an entry cannot fail.
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private OAuthValue obtainValue(String subject) throws IOException {
+    try {
+      refreshPermits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to refresh the access token.");
+    }
+    AuthTracer.Span span = AuthTracer.getDefault().startSpan(AuthTracer.REFRESH_SPAN, credentials);
+    long startNanos = System.nanoTime();
+    boolean success = false;
+    try {
+      AccessToken token =
+          Preconditions.checkNotNull(
+              credentials.refreshDelegatedAccessToken(subject), "new access token");
+      success = true;
+      return new OAuthValue(token, credentials.clock, credentials.ticker, 0);
+    } catch (IOException | RuntimeException e) {
+      span.recordError(e);
+      throw e;
+    } finally {
+      refreshPermits.release();
+      MetricsRecorder.getDefault()
+          .recordRefresh(credentials, System.nanoTime() - startNanos, success);
+      span.end();
+    }
+  }
+
+  /** Returns whether the token is valid beyond the refresh margin of the service account. */
+  private boolean isUsable(OAuthValue value) {
+    return credentials.isUsable(value);
+  }
+
+  private static final class Entry {
+    final ReentrantLock lock = new ReentrantLock();
+    // Written under lock, read without it while the token is current.
+    volatile OAuthValue value;
+  }
+
+  public static class Builder {
+    private ServiceAccountCredentials credentials;
+    private long maximumSubjects = DEFAULT_MAXIMUM_SUBJECTS;
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private int maxConcurrentRefreshes = DEFAULT_MAX_CONCURRENT_REFRESHES;
+
+    protected Builder() {}
+
+    /**
+     * Set the service account credentials to obtain the tokens with. They must have scopes and must
+     * not delegate to a user themselves. Required.
+     *
+     * @param credentials the service account credentials
+     * @return the builder
+     */
+    public Builder setServiceAccountCredentials(ServiceAccountCredentials credentials) {
+      this.credentials = Preconditions.checkNotNull(credentials);
+      return this;
+    }
+
+    public ServiceAccountCredentials getServiceAccountCredentials() {
+      return credentials;
+    }
+
+    /**
+     * Set the maximum number of subjects to keep tokens for. The least recently used subjects are
+     * discarded beyond it. Defaults to 10000.
+     *
+     * @param maximumSubjects the maximum number of subjects
+     * @return the builder
+     */
+    public Builder setMaximumSubjects(long maximumSubjects) {
+      Preconditions.checkArgument(maximumSubjects > 0, "maximumSubjects must be positive");
+      this.maximumSubjects = maximumSubjects;
+      return this;
+    }
+
+    public long getMaximumSubjects() {
+      return maximumSubjects;
+    }
+
+    /**
+     * Set how long the token of a subject is kept after it was last used. Defaults to 1 hour.
+     *
+     * @param idleTimeoutMillis the idle timeout in milliseconds
+     * @return the builder
+     */
+    public Builder setIdleTimeoutMillis(long idleTimeoutMillis) {
+      Preconditions.checkArgument(idleTimeoutMillis > 0, "idleTimeoutMillis must be positive");
+      this.idleTimeoutMillis = idleTimeoutMillis;
+      return this;
+    }
+
+    public long getIdleTimeoutMillis() {
+      return idleTimeoutMillis;
+    }
+
+    /**
+     * Set the maximum number of token requests running at once, across all subjects. Further
+     * refreshes wait for one of them to complete. Defaults to 16.
+     *
+     * @param maxConcurrentRefreshes the maximum number of concurrent token requests
+     * @return the builder
+     */
+    public Builder setMaxConcurrentRefreshes(int maxConcurrentRefreshes) {
+      Preconditions.checkArgument(
+          maxConcurrentRefreshes > 0, "maxConcurrentRefreshes must be positive");
+      this.maxConcurrentRefreshes = maxConcurrentRefreshes;
+      return this;
+    }
+
+    public int getMaxConcurrentRefreshes() {
+      return maxConcurrentRefreshes;
+    }
+
+    public DelegatedTokenPool build() {
+      return new DelegatedTokenPool(this);
+    }
+  }
+}
@@ -39,9 +39,9 @@ import com.google.auth.http.HttpTransportFactory;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -56,6 +56,10 @@ public class GoogleCredentials extends OAuth2Credentials {
 
   private static final DefaultCredentialsProvider defaultCredentialsProvider =
       new DefaultCredentialsProvider();
+  private static final long MAX_SCOPED_VARIANTS = 100;
+
+  // Guards the creation of the token cache shared with scoped copies
+  private transient Object variantLock = new byte[0];
 
   /**
    * Returns the credentials instance from the given access token.
@@ -173,19 +177,16 @@ public class GoogleCredentials extends OAuth2Credentials {
   }
 
   /**
-   * Adds quota project ID to requestMetadata if present.
+   * Returns the headers identifying the quota project, to be added to the request metadata.
    *
-   * @return a new map with quotaProjectId added if needed
+   * @return the quota project header, or an empty map if quotaProjectId is null
    */
-  static Map<String, List<String>> addQuotaProjectIdToRequestMetadata(
-      String quotaProjectId, Map<String, List<String>> requestMetadata) {
-    Preconditions.checkNotNull(requestMetadata);
-    Map<String, List<String>> newRequestMetadata = new HashMap<>(requestMetadata);
-    if (quotaProjectId != null && !requestMetadata.containsKey(QUOTA_PROJECT_ID_HEADER_KEY)) {
-      newRequestMetadata.put(
-          QUOTA_PROJECT_ID_HEADER_KEY, Collections.singletonList(quotaProjectId));
+  static Map<String, List<String>> getQuotaProjectIdHeaders(String quotaProjectId) {
+    if (quotaProjectId == null) {
+      return Collections.emptyMap();
     }
-    return Collections.unmodifiableMap(newRequestMetadata);
+    return Collections.singletonMap(
+        QUOTA_PROJECT_ID_HEADER_KEY, Collections.singletonList(quotaProjectId));
   }
 
   /** Default constructor. */
@@ -231,6 +232,35 @@ public class GoogleCredentials extends OAuth2Credentials {
     return this;
   }
 
+  /**
+   * Lets a copy created by {@link #createScoped} share tokens with these credentials and their
+   * other copies. They look up tokens in one cache keyed by their token cache key, so copies with
+   * an equal set of scopes use a single token, while each keeps its own listeners, background
+   * refresh and circuit breaker.
+   *
+   * @param variant the new copy
+   * @return the copy
+   */
+  <T extends GoogleCredentials> T shareVariantTokens(T variant) {
+    SharedTokenCache cache = variantTokenCache;
+    if (cache == null) {
+      synchronized (variantLock) {
+        cache = variantTokenCache;
+        if (cache == null) {
+          cache = SharedTokenCache.newScopedVariantCache(MAX_SCOPED_VARIANTS);
+          variantTokenCache = cache;
+        }
+      }
+    }
+    variant.variantTokenCache = cache;
+    return variant;
+  }
+
+  private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+    input.defaultReadObject();
+    variantLock = new byte[0];
+  }
+
   /**
    * If the credentials support scopes, creates a copy of the the identity with the specified
    * scopes; otherwise, returns the same instance.
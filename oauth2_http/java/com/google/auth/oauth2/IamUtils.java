@@ -110,9 +110,10 @@ class IamUtils {
     HttpRequest request =
         transport.createRequestFactory(adapter).buildPostRequest(genericUrl, signContent);
 
-    JsonObjectParser parser = new JsonObjectParser(OAuth2Utils.JSON_FACTORY);
+    JsonObjectParser parser = OAuth2Utils.JSON_PARSER;
     request.setParser(parser);
     request.setThrowExceptionOnExecuteError(false);
+    AuthTracer.getDefault().injectTraceHeaders(request);
 
     HttpResponse response = request.execute();
     int statusCode = response.getStatusCode();
@@ -179,9 +180,10 @@ class IamUtils {
     HttpRequest request =
         transport.createRequestFactory(adapter).buildPostRequest(genericUrl, idTokenContent);
 
-    JsonObjectParser parser = new JsonObjectParser(OAuth2Utils.JSON_FACTORY);
+    JsonObjectParser parser = OAuth2Utils.JSON_PARSER;
     request.setParser(parser);
     request.setThrowExceptionOnExecuteError(false);
+    AuthTracer.getDefault().injectTraceHeaders(request);
 
     HttpResponse response = request.execute();
     int statusCode = response.getStatusCode();
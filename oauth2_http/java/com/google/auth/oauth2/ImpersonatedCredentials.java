@@ -38,22 +38,25 @@ import com.google.api.client.http.HttpContent;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
-import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.util.GenericData;
+import com.google.auth.IdentityKey;
 import com.google.auth.ServiceAccountSigner;
 import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.http.HttpTransportFactory;
 import com.google.common.annotations.Beta;
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -193,12 +196,20 @@ public class ImpersonatedCredentials extends GoogleCredentials
    */
   @Override
   public byte[] sign(byte[] toSign) {
-    return IamUtils.sign(
-        getAccount(),
-        sourceCredentials,
-        transportFactory.create(),
-        toSign,
-        ImmutableMap.of("delegates", this.delegates));
+    AuthTracer.Span span = AuthTracer.getDefault().startSpan(AuthTracer.SIGN_SPAN, this);
+    try {
+      return IamUtils.sign(
+          getAccount(),
+          sourceCredentials,
+          SharedHttpTransports.getTransport(transportFactory),
+          toSign,
+          ImmutableMap.of("delegates", this.delegates));
+    } catch (RuntimeException e) {
+      span.recordError(e);
+      throw e;
+    } finally {
+      span.end();
+    }
   }
 
   private ImpersonatedCredentials(Builder builder) {
@@ -223,6 +234,13 @@ public class ImpersonatedCredentials extends GoogleCredentials
     }
   }
 
+  @Override
+  void warmUpConnection() throws IOException {
+    SharedHttpTransports.warmUp(
+        transportFactory,
+        new GenericUrl(String.format(IAM_ACCESS_TOKEN_ENDPOINT, this.targetPrincipal)));
+  }
+
   @Override
   public AccessToken refreshAccessToken() throws IOException {
     if (this.sourceCredentials.getAccessToken() == null) {
@@ -236,11 +254,10 @@ public class ImpersonatedCredentials extends GoogleCredentials
       throw new IOException("Unable to refresh sourceCredentials", e);
     }
 
-    HttpTransport httpTransport = this.transportFactory.create();
-    JsonObjectParser parser = new JsonObjectParser(OAuth2Utils.JSON_FACTORY);
+    JsonObjectParser parser = OAuth2Utils.JSON_PARSER;
 
     HttpCredentialsAdapter adapter = new HttpCredentialsAdapter(sourceCredentials);
-    HttpRequestFactory requestFactory = httpTransport.createRequestFactory();
+    HttpRequestFactory requestFactory = SharedHttpTransports.getRequestFactory(transportFactory);
 
     String endpointUrl = String.format(IAM_ACCESS_TOKEN_ENDPOINT, this.targetPrincipal);
     GenericUrl url = new GenericUrl(endpointUrl);
@@ -253,6 +270,7 @@ public class ImpersonatedCredentials extends GoogleCredentials
     HttpRequest request = requestFactory.buildPostRequest(url, requestContent);
     adapter.initialize(request);
     request.setParser(parser);
+    AuthTracer.getDefault().injectTraceHeaders(request);
 
     HttpResponse response = null;
     try {
@@ -295,15 +313,74 @@ public class ImpersonatedCredentials extends GoogleCredentials
   @Override
   public IdToken idTokenWithAudience(String targetAudience, List<IdTokenProvider.Option> options)
       throws IOException {
-    boolean includeEmail =
-        options != null && options.contains(IdTokenProvider.Option.INCLUDE_EMAIL);
-    return IamUtils.getIdToken(
-        getAccount(),
-        sourceCredentials,
-        transportFactory.create(),
-        targetAudience,
-        includeEmail,
-        ImmutableMap.of("delegates", this.delegates));
+    AuthTracer.Span span = AuthTracer.getDefault().startSpan(AuthTracer.ID_TOKEN_SPAN, this);
+    try {
+      boolean includeEmail =
+          options != null && options.contains(IdTokenProvider.Option.INCLUDE_EMAIL);
+      return IamUtils.getIdToken(
+          getAccount(),
+          sourceCredentials,
+          SharedHttpTransports.getTransport(transportFactory),
+          targetAudience,
+          includeEmail,
+          ImmutableMap.of("delegates", this.delegates));
+    } catch (IOException | RuntimeException e) {
+      span.recordError(e);
+      throw e;
+    } finally {
+      span.end();
+    }
+  }
+
+  /**
+   * Returns a key identifying the source credentials, target principal, delegation chain, scopes
+   * and token lifetime.
+   */
+  @Override
+  public IdentityKey getIdentityKey() {
+    return IdentityKey.of(
+        getClass().getName(),
+        sourceCredentials.getIdentityKey(),
+        targetPrincipal,
+        ImmutableList.copyOf(delegates),
+        ImmutableSet.copyOf(scopes),
+        lifetime);
+  }
+
+  @Override
+  Object getTokenCacheKey() {
+    return getIdentityKey();
+  }
+
+  @Override
+  Object getTokenPrincipalKey() {
+    return IdentityKey.of(
+        getClass().getName(),
+        sourceCredentials.getIdentityKey(),
+        targetPrincipal,
+        ImmutableList.copyOf(delegates),
+        lifetime);
+  }
+
+  @Override
+  Collection<String> getTokenScopes() {
+    return scopes;
+  }
+
+  /**
+   * Clones the impersonated credentials with the specified scopes. Clones with an equal set of
+   * scopes share their access token.
+   */
+  @Override
+  public GoogleCredentials createScoped(final Collection<String> newScopes) {
+    return shareVariantTokens(
+        new Builder(sourceCredentials, targetPrincipal)
+            .setDelegates(delegates)
+            .setScopes(
+                newScopes == null ? new ArrayList<String>() : new ArrayList<String>(newScopes))
+            .setLifetime(lifetime)
+            .setHttpTransportFactory(transportFactory)
+            .build());
   }
 
   @Override
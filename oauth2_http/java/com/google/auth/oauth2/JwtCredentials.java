@@ -38,7 +38,13 @@ import com.google.auth.Credentials;
 import com.google.auth.http.AuthHttpConstants;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.net.URI;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
@@ -47,6 +53,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Credentials class for calling Google APIs using a JWT with custom claims.
@@ -66,23 +74,42 @@ import java.util.concurrent.TimeUnit;
  *     .build();
  * </code></pre>
  */
-public class JwtCredentials extends Credentials implements JwtProvider {
+public class JwtCredentials extends Credentials
+    implements JwtProvider, RequestMetadataSnapshotProvider {
   private static final String JWT_ACCESS_PREFIX = OAuth2Utils.BEARER_PREFIX;
   private static final String JWT_INCOMPLETE_ERROR_MESSAGE =
       "JWT claims must contain audience, " + "issuer, and subject.";
   private static final long CLOCK_SKEW = TimeUnit.MINUTES.toSeconds(5);
-
-  // byte[] is serializable, so the lock variable can be final
-  private final Object lock = new byte[0];
+  private static final long serialVersionUID = 287345113251030847L;
+
+  // The serialized form keeps the lock of earlier versions, which synchronize on it, so that
+  // streams written by earlier versions can be read and vice versa.
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("lock", Object.class),
+    new ObjectStreamField("privateKey", PrivateKey.class),
+    new ObjectStreamField("privateKeyId", String.class),
+    new ObjectStreamField("jwtClaims", JwtClaims.class),
+    new ObjectStreamField("lifeSpanSeconds", Long.class),
+    new ObjectStreamField("additionalHeaders", Map.class)
+  };
+
+  // Signing is guarded by a ReentrantLock rather than a monitor so that it does not pin virtual
+  // threads.
+  private transient ReentrantLock lock = new ReentrantLock();
   private final PrivateKey privateKey;
   private final String privateKeyId;
   private final JwtClaims jwtClaims;
   private final Long lifeSpanSeconds;
+  // Not final as streams of earlier versions do not have it
+  private Map<String, List<String>> additionalHeaders;
   @VisibleForTesting transient Clock clock;
+  @VisibleForTesting transient Ticker ticker;
 
-  private transient String jwt;
-  // The date (represented as seconds since the epoch) that the generated JWT expires
-  private transient Long expiryInSeconds;
+  // The metadata for the current JWT, and how many JWTs were generated so far
+  private transient RequestMetadataSnapshot snapshot;
+  private transient AtomicLong generations;
+  // The time of the ticker at which the generated JWT expires
+  private transient Long expiryNanos;
 
   private JwtCredentials(Builder builder) {
     this.privateKey = Preconditions.checkNotNull(builder.getPrivateKey());
@@ -90,7 +117,10 @@ public class JwtCredentials extends Credentials implements JwtProvider {
     this.jwtClaims = Preconditions.checkNotNull(builder.getJwtClaims());
     Preconditions.checkState(jwtClaims.isComplete(), JWT_INCOMPLETE_ERROR_MESSAGE);
     this.lifeSpanSeconds = Preconditions.checkNotNull(builder.getLifeSpanSeconds());
+    this.additionalHeaders = ImmutableMap.copyOf(builder.getAdditionalHeaders());
     this.clock = Preconditions.checkNotNull(builder.getClock());
+    this.ticker = Preconditions.checkNotNull(builder.getTicker());
+    this.generations = builder.generations;
   }
 
   public static Builder newBuilder() {
@@ -110,30 +140,39 @@ public class JwtCredentials extends Credentials implements JwtProvider {
     payload.setIssuer(jwtClaims.getIssuer());
     payload.setSubject(jwtClaims.getSubject());
 
-    long currentTime = clock.currentTimeMillis();
+    long currentTime = getClock().currentTimeMillis();
     payload.setIssuedAtTimeSeconds(currentTime / 1000);
     payload.setExpirationTimeSeconds(currentTime / 1000 + lifeSpanSeconds);
 
     // Add all additional claims
     payload.putAll(jwtClaims.getAdditionalClaims());
 
-    synchronized (lock) {
-      this.expiryInSeconds = payload.getExpirationTimeSeconds();
+    lock.lock();
+    try {
+      this.expiryNanos = getTicker().read() + TimeUnit.SECONDS.toNanos(lifeSpanSeconds);
 
       try {
-        this.jwt =
+        String jwt =
             JsonWebSignature.signUsingRsaSha256(
                 privateKey, OAuth2Utils.JSON_FACTORY, header, payload);
+        Map<String, List<String>> metadata =
+            ImmutableMap.<String, List<String>>builder()
+                .put(AuthHttpConstants.AUTHORIZATION, ImmutableList.of(JWT_ACCESS_PREFIX + jwt))
+                .putAll(additionalHeaders)
+                .build();
+        this.snapshot = new RequestMetadataSnapshot(getGenerations().incrementAndGet(), metadata);
       } catch (GeneralSecurityException e) {
         throw new IOException(
             "Error signing service account JWT access header with private key.", e);
       }
+    } finally {
+      lock.unlock();
     }
   }
 
   private boolean shouldRefresh() {
-    return expiryInSeconds == null
-        || getClock().currentTimeMillis() / 1000 > expiryInSeconds - CLOCK_SKEW;
+    return expiryNanos == null
+        || getTicker().read() > expiryNanos - TimeUnit.SECONDS.toNanos(CLOCK_SKEW);
   }
 
   /**
@@ -148,6 +187,7 @@ public class JwtCredentials extends Credentials implements JwtProvider {
         .setPrivateKey(privateKey)
         .setPrivateKeyId(privateKeyId)
         .setJwtClaims(jwtClaims.merge(newClaims))
+        .setAdditionalHeaders(additionalHeaders)
         .build();
   }
 
@@ -158,12 +198,23 @@ public class JwtCredentials extends Credentials implements JwtProvider {
 
   @Override
   public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
-    synchronized (lock) {
+    return getRequestMetadataSnapshot(uri).getRequestMetadata();
+  }
+
+  /**
+   * Returns the metadata for the current JWT with its generation, signing a new JWT if required.
+   * The generation increases with every new JWT.
+   */
+  @Override
+  public RequestMetadataSnapshot getRequestMetadataSnapshot(URI uri) throws IOException {
+    MetricsRecorder.lock(lock, this);
+    try {
       if (shouldRefresh()) {
         refresh();
       }
-      List<String> newAuthorizationHeaders = Collections.singletonList(JWT_ACCESS_PREFIX + jwt);
-      return Collections.singletonMap(AuthHttpConstants.AUTHORIZATION, newAuthorizationHeaders);
+      return snapshot;
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -186,12 +237,37 @@ public class JwtCredentials extends Credentials implements JwtProvider {
     return Objects.equals(this.privateKey, other.privateKey)
         && Objects.equals(this.privateKeyId, other.privateKeyId)
         && Objects.equals(this.jwtClaims, other.jwtClaims)
-        && Objects.equals(this.lifeSpanSeconds, other.lifeSpanSeconds);
+        && Objects.equals(this.lifeSpanSeconds, other.lifeSpanSeconds)
+        && Objects.equals(this.additionalHeaders, other.additionalHeaders);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(this.privateKey, this.privateKeyId, this.jwtClaims, this.lifeSpanSeconds);
+    return Objects.hash(
+        this.privateKey,
+        this.privateKeyId,
+        this.jwtClaims,
+        this.lifeSpanSeconds,
+        this.additionalHeaders);
+  }
+
+  private void writeObject(ObjectOutputStream output) throws IOException {
+    ObjectOutputStream.PutField fields = output.putFields();
+    fields.put("lock", new byte[0]);
+    fields.put("privateKey", privateKey);
+    fields.put("privateKeyId", privateKeyId);
+    fields.put("jwtClaims", jwtClaims);
+    fields.put("lifeSpanSeconds", lifeSpanSeconds);
+    fields.put("additionalHeaders", additionalHeaders);
+    output.writeFields();
+  }
+
+  private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+    input.defaultReadObject();
+    lock = new ReentrantLock();
+    if (additionalHeaders == null) {
+      additionalHeaders = ImmutableMap.of();
+    }
   }
 
   Clock getClock() {
@@ -201,12 +277,30 @@ public class JwtCredentials extends Credentials implements JwtProvider {
     return clock;
   }
 
+  Ticker getTicker() {
+    if (ticker == null) {
+      ticker = Ticker.systemTicker();
+    }
+    return ticker;
+  }
+
+  // Must be called under lock
+  private AtomicLong getGenerations() {
+    if (generations == null) {
+      generations = new AtomicLong();
+    }
+    return generations;
+  }
+
   public static class Builder {
     private PrivateKey privateKey;
     private String privateKeyId;
     private JwtClaims jwtClaims;
     private Clock clock = Clock.SYSTEM;
+    private Ticker ticker = Ticker.systemTicker();
+    private AtomicLong generations;
     private Long lifeSpanSeconds = TimeUnit.HOURS.toSeconds(1);
+    private Map<String, List<String>> additionalHeaders = Collections.emptyMap();
 
     protected Builder() {}
 
@@ -255,6 +349,31 @@ public class JwtCredentials extends Credentials implements JwtProvider {
       return clock;
     }
 
+    Builder setTicker(Ticker ticker) {
+      this.ticker = Preconditions.checkNotNull(ticker);
+      return this;
+    }
+
+    Ticker getTicker() {
+      return ticker;
+    }
+
+    /** The counter to draw generations of the request metadata from, shared between credentials. */
+    Builder setGenerations(AtomicLong generations) {
+      this.generations = Preconditions.checkNotNull(generations);
+      return this;
+    }
+
+    /** Headers added to the request metadata of every JWT, such as the quota project. */
+    Builder setAdditionalHeaders(Map<String, List<String>> additionalHeaders) {
+      this.additionalHeaders = Preconditions.checkNotNull(additionalHeaders);
+      return this;
+    }
+
+    Map<String, List<String>> getAdditionalHeaders() {
+      return additionalHeaders;
+    }
+
     public JwtCredentials build() {
       return new JwtCredentials(this);
     }
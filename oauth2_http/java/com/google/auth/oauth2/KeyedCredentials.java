@@ -0,0 +1,124 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.auth.Credentials;
+import com.google.auth.IdentityKey;
+import com.google.auth.RequestMetadataCallback;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectStreamException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Lightweight credentials of one key of a backend holding the state of many, such as a user of a
+ * {@link DelegatedTokenPool} or a tenant of a {@link ServiceAccountKeyManager}. They only hold the
+ * backend and the key, so they can be created for every call. They cannot be serialized, as the
+ * backend is not.
+ */
+final class KeyedCredentials extends Credentials {
+  private static final long serialVersionUID = -2214395468730129753L;
+
+  /** The state behind the credentials of each key. */
+  interface Backend {
+
+    /** Returns the identity of the credentials of the key. */
+    IdentityKey getIdentityKey(String key);
+
+    /**
+     * Passes the request metadata of the key to the callback if that does not block the caller.
+     *
+     * @return whether the callback was or will be invoked
+     */
+    boolean getRequestMetadataIfReady(
+        String key, URI uri, Executor executor, RequestMetadataCallback callback);
+
+    /** Returns the request metadata of the key, blocking if needed. */
+    Map<String, List<String>> getRequestMetadata(String key, URI uri) throws IOException;
+
+    /** Refreshes the token of the key. */
+    void refresh(String key) throws IOException;
+  }
+
+  private final Backend backend;
+  private final String key;
+
+  KeyedCredentials(Backend backend, String key) {
+    this.backend = backend;
+    this.key = key;
+  }
+
+  @Override
+  public String getAuthenticationType() {
+    return "OAuth2";
+  }
+
+  @Override
+  public IdentityKey getIdentityKey() {
+    return backend.getIdentityKey(key);
+  }
+
+  @Override
+  public void getRequestMetadata(URI uri, Executor executor, RequestMetadataCallback callback) {
+    if (!backend.getRequestMetadataIfReady(key, uri, executor, callback)) {
+      super.getRequestMetadata(uri, executor, callback);
+    }
+  }
+
+  @Override
+  public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
+    return backend.getRequestMetadata(key, uri);
+  }
+
+  @Override
+  public boolean hasRequestMetadata() {
+    return true;
+  }
+
+  @Override
+  public boolean hasRequestMetadataOnly() {
+    return true;
+  }
+
+  @Override
+  public void refresh() throws IOException {
+    backend.refresh(key);
+  }
+
+  private Object writeReplace() throws ObjectStreamException {
+    throw new NotSerializableException(
+        "Credentials of a token pool or key manager cannot be serialized.");
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.auth.Credentials;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Receives measurements of token refreshes, cache lookups and lock contention from the library.
+ *
+ * <p>All methods do nothing by default, so an implementation only overrides the measurements it
+ * exports. The recorder is looked up once with {@link java.util.ServiceLoader}, and can be replaced
+ * with {@link #setDefault(MetricsRecorder)}. Methods are called on the thread doing the work, in
+ * some cases while holding the credentials lock, so implementations must be thread-safe and should
+ * return quickly.
+ */
+public abstract class MetricsRecorder {
+
+  /** Cache of the per-audience JWTs of {@link ServiceAccountJwtAccessCredentials}. */
+  public static final String JWT_ACCESS_CACHE = "jwt-access";
+
+  /** Cache of the public keys fetched by {@link TokenVerifier}. */
+  public static final String TOKEN_VERIFIER_PUBLIC_KEY_CACHE = "token-verifier-public-keys";
+
+  /** The {@link SharedTokenCache}. */
+  public static final String SHARED_TOKEN_CACHE = "shared-tokens";
+
+  /** Tokens shared by the scoped copies of one {@link GoogleCredentials}. */
+  public static final String SCOPED_VARIANT_TOKENS = "scoped-variant-tokens";
+
+  /** Private keys shared by service account credentials, keyed by private key ID. */
+  public static final String PRIVATE_KEY_REGISTRY = "private-keys";
+
+  /** The tokens of a {@link DelegatedTokenPool}, keyed by subject. */
+  public static final String DELEGATED_TOKEN_POOL = "delegated-tokens";
+
+  /** The parsed keys of a {@link ServiceAccountKeyManager}, keyed by tenant. */
+  public static final String SERVICE_ACCOUNT_KEYS = "service-account-keys";
+
+  private static final MetricsRecorder NOOP = new MetricsRecorder() {};
+
+  private static volatile MetricsRecorder defaultRecorder =
+      OAuth2Credentials.getFromServiceLoader(MetricsRecorder.class, NOOP);
+
+  protected MetricsRecorder() {}
+
+  /** Returns the recorder the library currently reports to. */
+  public static MetricsRecorder getDefault() {
+    return defaultRecorder;
+  }
+
+  /**
+   * Replaces the recorder the library reports to.
+   *
+   * @param recorder the recorder, or null to stop recording
+   */
+  public static void setDefault(MetricsRecorder recorder) {
+    defaultRecorder = recorder == null ? NOOP : recorder;
+  }
+
+  /**
+   * Called after every attempt to obtain a new access token.
+   *
+   * @param credentials the credentials that were refreshed
+   * @param latencyNanos the duration of the attempt, in nanoseconds
+   * @param success whether a token was obtained
+   */
+  public void recordRefresh(Credentials credentials, long latencyNanos, boolean success) {}
+
+  /**
+   * Called when a refresh started for asynchronous callers completes, with the number of callers
+   * that waited for it.
+   *
+   * @param credentials the credentials that were refreshed
+   * @param waiters the number of callers completed by the refresh
+   */
+  public void recordRefreshWaiters(Credentials credentials, int waiters) {}
+
+  /**
+   * Called for every lookup in one of the library caches.
+   *
+   * @param cacheName the name of the cache, such as {@link #JWT_ACCESS_CACHE}
+   * @param hit whether the value was already cached
+   */
+  public void recordCacheAccess(String cacheName, boolean hit) {}
+
+  /**
+   * Called when a thread had to wait for the lock of the credentials to obtain or refresh a token.
+   * Uncontended acquisitions are not reported.
+   *
+   * @param credentials the credentials whose lock was contended
+   * @param waitNanos the time spent blocked, in nanoseconds
+   */
+  public void recordLockWait(Credentials credentials, long waitNanos) {}
+
+  /** Acquires the lock, reporting the time spent waiting if it was not immediately available. */
+  static void lock(Lock lock, Credentials credentials) {
+    if (lock.tryLock()) {
+      return;
+    }
+    long startNanos = System.nanoTime();
+    lock.lock();
+    defaultRecorder.recordLockWait(credentials, System.nanoTime() - startNanos);
+  }
+}
@@ -34,38 +34,99 @@ package com.google.auth.oauth2;
 import com.google.api.client.util.Clock;
 import com.google.auth.Credentials;
 import com.google.auth.RequestMetadataCallback;
+import com.google.auth.RequestMetadataTimeoutException;
 import com.google.auth.http.AuthHttpConstants;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /** Base type for Credentials using OAuth2. */
-public class OAuth2Credentials extends Credentials {
+public class OAuth2Credentials extends Credentials implements RequestMetadataSnapshotProvider {
 
   private static final long serialVersionUID = 4556936364828217687L;
   private static final long MINIMUM_TOKEN_MILLISECONDS = 60000L * 5L;
+  private static final Logger LOGGER = Logger.getLogger(OAuth2Credentials.class.getName());
+  @VisibleForTesting static final int DEFAULT_MAX_REFRESH_WAITERS = 10000;
 
-  // byte[] is serializable, so the lock variable can be final
-  private final Object lock = new byte[0];
-  private Map<String, List<String>> requestMetadata;
-  private AccessToken temporaryAccess;
+  // The serialized form is kept as it was before the token and its metadata were combined into
+  // one snapshot, so that streams written by earlier versions can be read and vice versa.
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("lock", Object.class),
+    new ObjectStreamField("requestMetadata", Map.class),
+    new ObjectStreamField("temporaryAccess", AccessToken.class)
+  };
+
+  // Refreshes block on the network, so they are guarded by a ReentrantLock rather than a monitor,
+  // which would pin a virtual thread to its carrier for the duration.
+  @VisibleForTesting transient ReentrantLock lock = new ReentrantLock();
+  // The token and the metadata derived from it are published together so that readers never
+  // observe one without the other and can skip the lock while the token is fresh.
+  private transient volatile OAuthValue value;
+  // Counts the generations of the request metadata, incremented whenever a token is stored. Shared
+  // with other sources of metadata of the credentials so that their generations never repeat.
+  transient AtomicLong generations = new AtomicLong();
+  // Guards the asynchronous refresh waiters only, never held during a refresh.
+  private transient Object waitersLock = new byte[0];
+  // Non-null while an asynchronous refresh is in flight. Guarded by waitersLock.
+  private transient List<RefreshWaiter> refreshWaiters;
+  @VisibleForTesting transient int maxRefreshWaiters = DEFAULT_MAX_REFRESH_WAITERS;
+  // Shares tokens between scoped copies of the same credentials while no SharedTokenCache is
+  // enabled, see GoogleCredentials#shareVariantTokens.
+  transient volatile SharedTokenCache variantTokenCache;
 
   // Change listeners are not serialized
   private transient List<CredentialsChangedListener> changeListeners;
+  // Listeners to notify, one entry per change in the order of the changes. Events are queued under
+  // the lock and delivered, one dispatcher at a time, after the lock is released.
+  private transient Queue<List<CredentialsChangedListener>> pendingChangeEvents =
+      new ConcurrentLinkedQueue<>();
+  private transient AtomicBoolean changeEventsDispatching = new AtomicBoolean();
+  private transient volatile Executor changeListenerExecutor;
+  // Background refresh is opt-in and not serialized
+  private transient volatile BackgroundRefreshOptions backgroundRefreshOptions;
+  private transient ScheduledFuture<?> scheduledRefresh;
+  private transient AtomicBoolean backgroundRefreshRunning = new AtomicBoolean();
+  // Adaptive refresh margin is opt-in and not serialized
+  private transient volatile RefreshLatencyTracker refreshLatencyTracker;
+  // The refresh circuit breaker is opt-in and not serialized
+  private transient volatile RefreshCircuitBreaker circuitBreaker;
+  // Written under lock by every refresh, for the management interface
+  private transient volatile long lastRefreshDurationNanos = -1;
+  private transient volatile Exception lastRefreshError;
   // Until we expose this to the users it can remain transient and non-serializable
   @VisibleForTesting transient Clock clock = Clock.SYSTEM;
+  // Measures the validity of tokens, which must not follow steps of the wall clock
+  @VisibleForTesting transient Ticker ticker = Ticker.systemTicker();
 
   /**
    * Returns the credentials instance from the given access token.
@@ -116,22 +177,156 @@ public class OAuth2Credentials extends Credentials {
    * @return The cached access token.
    */
   public final AccessToken getAccessToken() {
-    return temporaryAccess;
+    OAuthValue localValue = value;
+    return localValue == null ? null : localValue.temporaryAccess;
   }
 
   @Override
   public void getRequestMetadata(
       final URI uri, Executor executor, final RequestMetadataCallback callback) {
-    Map<String, List<String>> metadata;
-    synchronized (lock) {
-      if (shouldRefresh()) {
-        // The base class implementation will do a blocking get in the executor.
-        super.getRequestMetadata(uri, executor, callback);
-        return;
+    OAuthValue localValue = value;
+    CacheState state = getState(localValue);
+    if (state == CacheState.EXPIRED) {
+      waitForAsyncRefresh(uri, executor, callback);
+      return;
+    }
+    if (state == CacheState.STALE) {
+      triggerBackgroundRefresh(localValue);
+    }
+    callback.onSuccess(getRequestMetadata(localValue));
+  }
+
+  /**
+   * Registers the callback with the asynchronous refresh in flight, starting one on the executor if
+   * there is none. All waiters are completed by that single refresh, so no executor thread is
+   * parked per caller.
+   */
+  private void waitForAsyncRefresh(URI uri, Executor executor, RequestMetadataCallback callback) {
+    boolean startRefresh = false;
+    int waiting;
+    synchronized (waitersLock) {
+      if (refreshWaiters == null) {
+        refreshWaiters = new ArrayList<>();
+        startRefresh = true;
+      }
+      waiting = refreshWaiters.size();
+      if (waiting < maxRefreshWaiters) {
+        refreshWaiters.add(new RefreshWaiter(uri, callback));
+      }
+    }
+    if (waiting >= maxRefreshWaiters) {
+      callback.onFailure(
+          new IOException(
+              String.format(
+                  "Too many requests (%d) are waiting for the access token to be refreshed.",
+                  waiting)));
+      return;
+    }
+    if (startRefresh) {
+      try {
+        executor.execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                runAsyncRefresh();
+              }
+            });
+      } catch (RuntimeException e) {
+        completeRefreshWaiters(e);
+      }
+    }
+  }
+
+  private void runAsyncRefresh() {
+    Throwable failure = null;
+    try {
+      // While refreshes are suspended the waiters are served the unexpired token, if any.
+      if (getValueWhileRefreshSuspended() == null) {
+        refreshIfExpired();
       }
-      metadata = Preconditions.checkNotNull(requestMetadata, "cached requestMetadata");
+    } catch (Throwable e) {
+      failure = e;
+    }
+    completeRefreshWaiters(failure);
+  }
+
+  private void completeRefreshWaiters(Throwable failure) {
+    List<RefreshWaiter> waiters;
+    synchronized (waitersLock) {
+      waiters = refreshWaiters;
+      refreshWaiters = null;
+    }
+    MetricsRecorder.getDefault().recordRefreshWaiters(this, waiters.size());
+    for (RefreshWaiter waiter : waiters) {
+      // A failing callback must not keep the remaining waiters from being completed.
+      try {
+        if (failure != null) {
+          waiter.callback.onFailure(failure);
+        } else {
+          // The token was just refreshed, so this does not block.
+          blockingGetToCallback(waiter.uri, waiter.callback);
+        }
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Request metadata callback failed", e);
+      }
+    }
+  }
+
+  /**
+   * Get the current request metadata as a future, without blocking the calling thread.
+   *
+   * <p>When a current access token is cached the returned future is already complete. Otherwise a
+   * refresh is started on the executor, shared with any other caller waiting for a token, and the
+   * future completes when it finishes.
+   *
+   * @param uri URI of the entry point for the request.
+   * @param executor Executor to perform the refresh on, if needed.
+   * @return A future of the request metadata, failing with the refresh error if the token could not
+   *     be obtained.
+   */
+  public final ListenableFuture<Map<String, List<String>>> getRequestMetadataAsync(
+      URI uri, Executor executor) {
+    final SettableFuture<Map<String, List<String>>> future = SettableFuture.create();
+    getRequestMetadata(
+        uri,
+        executor,
+        new RequestMetadataCallback() {
+          @Override
+          public void onSuccess(Map<String, List<String>> metadata) {
+            future.set(metadata);
+          }
+
+          @Override
+          public void onFailure(Throwable exception) {
+            future.setException(exception);
+          }
+        });
+    return future;
+  }
+
+  /**
+   * Get the current request metadata, waiting no longer than the given timeout.
+   *
+   * <p>A current cached token is returned without waiting. Otherwise the caller joins the refresh
+   * shared with other callers on the executor, and stops waiting at the timeout while the refresh
+   * continues for later callers.
+   *
+   * @param uri URI of the entry point for the request.
+   * @param executor Executor to perform the refresh on, if needed.
+   * @param timeout The maximum time to wait.
+   * @param unit The unit of the timeout.
+   * @return The request metadata used for populating headers or other context.
+   * @throws RequestMetadataTimeoutException if the token was not refreshed before the timeout.
+   * @throws IOException if there was an error getting up-to-date access.
+   */
+  @Override
+  public Map<String, List<String>> getRequestMetadata(
+      URI uri, Executor executor, long timeout, TimeUnit unit) throws IOException {
+    if (getState(value) != CacheState.EXPIRED) {
+      // Does not block while the token is current.
+      return getRequestMetadata(uri);
     }
-    callback.onSuccess(metadata);
+    return super.getRequestMetadata(uri, executor, timeout, unit);
   }
 
   /**
@@ -140,27 +335,238 @@ public class OAuth2Credentials extends Credentials {
    */
   @Override
   public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
-    synchronized (lock) {
-      if (shouldRefresh()) {
+    // Fast path: a fresh snapshot is immutable, so it can be returned without taking the lock.
+    OAuthValue localValue = value;
+    CacheState state = getState(localValue);
+    if (state != CacheState.EXPIRED) {
+      if (state == CacheState.STALE) {
+        triggerBackgroundRefresh(localValue);
+      }
+      return getRequestMetadata(localValue);
+    }
+    OAuthValue refreshedValue;
+    MetricsRecorder.lock(lock, this);
+    try {
+      if (getState(value) == CacheState.EXPIRED && getValueWhileRefreshSuspended() == null) {
         refresh();
       }
-      return Preconditions.checkNotNull(requestMetadata, "requestMetadata");
+      refreshedValue = Preconditions.checkNotNull(value, "requestMetadata");
+    } finally {
+      lock.unlock();
+    }
+    dispatchChangeEvents();
+    return getRequestMetadata(refreshedValue);
+  }
+
+  /**
+   * Returns the current request metadata with its generation, refreshing the token if required.
+   *
+   * <p>The generation increases with every new access token, so transports can reuse headers they
+   * derived from the metadata for as long as the generation does not change.
+   */
+  @Override
+  public RequestMetadataSnapshot getRequestMetadataSnapshot(URI uri) throws IOException {
+    while (true) {
+      OAuthValue before = value;
+      Map<String, List<String>> metadata = getRequestMetadata(uri);
+      OAuthValue after = value;
+      // Retry if the token changed meanwhile, so that the metadata matches the generation.
+      if (after != null && after == before) {
+        return getRequestMetadata(after) == metadata
+            ? after.getSnapshot(this)
+            : new RequestMetadataSnapshot(after.generation, metadata);
+      }
     }
   }
 
-  /** Refresh the token by discarding the cached token and metadata and requesting the new ones. */
+  /**
+   * Refresh the token by discarding the cached token and metadata and requesting the new ones.
+   *
+   * <p>In stale-while-revalidate mode the cached token is kept, and served to other callers, until
+   * the refresh succeeds. With the circuit breaker enabled it is kept as well, so that it can be
+   * served until it expires while refreshes are suspended.
+   */
   @Override
   public void refresh() throws IOException {
-    synchronized (lock) {
-      requestMetadata = null;
-      temporaryAccess = null;
-      useAccessToken(Preconditions.checkNotNull(refreshAccessToken(), "new access token"));
-      if (changeListeners != null) {
-        for (CredentialsChangedListener listener : changeListeners) {
-          listener.onChanged(this);
+    MetricsRecorder.lock(lock, this);
+    try {
+      checkRefreshAllowed();
+      OAuthValue replacedValue = value;
+      // The circuit breaker serves the unexpired token after a failure, so it must be kept.
+      BackgroundRefreshOptions options = backgroundRefreshOptions;
+      if ((options == null || !options.isStaleWhileRevalidate()) && circuitBreaker == null) {
+        value = null;
+      }
+      refreshAndNotify(replacedValue);
+    } finally {
+      lock.unlock();
+    }
+    dispatchChangeEvents();
+  }
+
+  /** Throws the suspension error while the circuit breaker is open. */
+  private void checkRefreshAllowed() throws IOException {
+    RefreshCircuitBreaker breaker = circuitBreaker;
+    if (breaker != null) {
+      breaker.checkClosed(ticker.read());
+    }
+  }
+
+  /**
+   * Returns the cached snapshot if refreshes are suspended by the circuit breaker and its token has
+   * not expired yet, or null otherwise.
+   */
+  private OAuthValue getValueWhileRefreshSuspended() {
+    RefreshCircuitBreaker breaker = circuitBreaker;
+    OAuthValue localValue = value;
+    if (breaker == null || localValue == null || !breaker.isOpen(ticker.read())) {
+      return null;
+    }
+    Long expiresIn = getExpiresInMilliseconds(localValue);
+    return expiresIn == null || expiresIn > 0 ? localValue : null;
+  }
+
+  // Must be called under lock
+  private void refreshAndNotify(OAuthValue replacedValue) throws IOException {
+    RefreshLatencyTracker tracker = refreshLatencyTracker;
+    RefreshCircuitBreaker breaker = circuitBreaker;
+    AuthEvent event = AuthEvent.begin(AuthEvent.Operation.REFRESH, getClass().getName());
+    AuthTracer.Span span = AuthTracer.getDefault().startSpan(AuthTracer.REFRESH_SPAN, this);
+    long startNanos = System.nanoTime();
+    boolean success = false;
+    AccessToken token;
+    try {
+      token = Preconditions.checkNotNull(obtainAccessToken(replacedValue), "new access token");
+      success = true;
+    } catch (IOException e) {
+      lastRefreshError = e;
+      span.recordError(e);
+      if (breaker != null) {
+        breaker.recordFailure(e, ticker.read());
+      }
+      throw e;
+    } catch (RuntimeException e) {
+      lastRefreshError = e;
+      span.recordError(e);
+      throw e;
+    } finally {
+      long latencyNanos = System.nanoTime() - startNanos;
+      lastRefreshDurationNanos = latencyNanos;
+      if (tracker != null) {
+        tracker.record(latencyNanos, success);
+      }
+      MetricsRecorder.getDefault().recordRefresh(this, latencyNanos, success);
+      event.end(success);
+      span.end();
+    }
+    lastRefreshError = null;
+    if (breaker != null) {
+      breaker.recordSuccess();
+    }
+    useAccessToken(token);
+    scheduleBackgroundRefresh(value);
+    if (changeListeners != null && !changeListeners.isEmpty()) {
+      pendingChangeEvents.add(ImmutableList.copyOf(changeListeners));
+    }
+  }
+
+  /**
+   * Obtains a new access token, from the shared token cache if it is enabled, or else the cache of
+   * scoped copies, and the credentials have a token cache key.
+   */
+  private AccessToken obtainAccessToken(OAuthValue replacedValue) throws IOException {
+    SharedTokenCache sharedCache = SharedTokenCache.getEnabled();
+    if (sharedCache == null) {
+      sharedCache = variantTokenCache;
+    }
+    Object key = sharedCache == null ? null : getTokenCacheKey();
+    if (key == null) {
+      return refreshAccessToken();
+    }
+    return sharedCache.getAccessToken(
+        key, this, replacedValue == null ? null : replacedValue.temporaryAccess);
+  }
+
+  /**
+   * Returns the key identifying the tokens of these credentials in the {@link SharedTokenCache}, or
+   * null if their tokens cannot be shared. Credentials with equal keys must obtain interchangeable
+   * tokens.
+   */
+  Object getTokenCacheKey() {
+    return null;
+  }
+
+  /**
+   * Returns the key identifying the principal of the tokens of these credentials, without their
+   * scopes, or null if tokens with more scopes cannot stand in for theirs. Tokens of credentials
+   * with equal principal keys must be interchangeable whenever one has all scopes of the other.
+   */
+  Object getTokenPrincipalKey() {
+    return null;
+  }
+
+  /** Returns the scopes the tokens of these credentials are requested for. */
+  Collection<String> getTokenScopes() {
+    return Collections.<String>emptySet();
+  }
+
+  /**
+   * Delivers the queued change events once the calling thread no longer holds the lock, either on
+   * this thread or on the change listener executor. Listener failures are only propagated when
+   * notifying on this thread.
+   */
+  private void dispatchChangeEvents() throws IOException {
+    if (lock.isHeldByCurrentThread() || pendingChangeEvents.isEmpty()) {
+      // Nested calls leave the events to the outermost caller, which releases the lock.
+      return;
+    }
+    Executor executor = changeListenerExecutor;
+    if (executor == null) {
+      drainChangeEvents();
+      return;
+    }
+    try {
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                drainChangeEvents();
+              } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Credentials change listener failed", e);
+              }
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      LOGGER.log(Level.WARNING, "Unable to notify credentials change listeners", e);
+    }
+  }
+
+  private void drainChangeEvents() throws IOException {
+    IOException failure = null;
+    // Only one thread delivers events at a time, which keeps them in the order of the changes. The
+    // queue is checked again after giving up the flag so that no event is left behind.
+    while (!pendingChangeEvents.isEmpty() && changeEventsDispatching.compareAndSet(false, true)) {
+      try {
+        List<CredentialsChangedListener> listeners;
+        while ((listeners = pendingChangeEvents.poll()) != null) {
+          for (CredentialsChangedListener listener : listeners) {
+            try {
+              listener.onChanged(this);
+            } catch (IOException e) {
+              if (failure == null) {
+                failure = e;
+              }
+            }
+          }
         }
+      } finally {
+        changeEventsDispatching.set(false);
       }
     }
+    if (failure != null) {
+      throw failure;
+    }
   }
 
   /**
@@ -169,27 +575,332 @@ public class OAuth2Credentials extends Credentials {
    * @throws IOException during token refresh.
    */
   public void refreshIfExpired() throws IOException {
-    synchronized (lock) {
-      if (shouldRefresh()) {
+    if (getState(value) != CacheState.EXPIRED) {
+      return;
+    }
+    MetricsRecorder.lock(lock, this);
+    try {
+      if (getState(value) == CacheState.EXPIRED) {
         refresh();
       }
+    } finally {
+      lock.unlock();
+    }
+    dispatchChangeEvents();
+  }
+
+  /**
+   * Enables refreshing the access token in the background, ahead of its expiry.
+   *
+   * <p>While enabled, a refresh is scheduled on {@link BackgroundRefreshOptions#getScheduler()}
+   * every time a new token is obtained, and callers keep receiving the current token while a
+   * background refresh is pending. Callers only wait for a refresh once the token is about to
+   * expire, for example when the background refresh failed.
+   *
+   * @param options the background refresh options
+   */
+  public final void enableBackgroundRefresh(BackgroundRefreshOptions options) {
+    Preconditions.checkNotNull(options);
+    lock.lock();
+    try {
+      backgroundRefreshOptions = options;
+      scheduleBackgroundRefresh(value);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Enables deriving the refresh margin from the observed latency and failure rate of refreshes,
+   * instead of always refreshing once the token has less than five minutes of validity left.
+   *
+   * @param options the adaptive margin options
+   */
+  public final void enableAdaptiveMargin(AdaptiveMarginOptions options) {
+    refreshLatencyTracker = new RefreshLatencyTracker(Preconditions.checkNotNull(options));
+  }
+
+  /** Disables the adaptive refresh margin and discards the observed refresh history. */
+  public final void disableAdaptiveMargin() {
+    refreshLatencyTracker = null;
+  }
+
+  /**
+   * Enables suspending refreshes for a growing window after a refresh fails, instead of retrying on
+   * every request.
+   *
+   * @param options the circuit breaker options
+   */
+  public final void enableCircuitBreaker(CircuitBreakerOptions options) {
+    circuitBreaker = new RefreshCircuitBreaker(Preconditions.checkNotNull(options));
+  }
+
+  /** Disables the circuit breaker and forgets any previous refresh failure. */
+  public final void disableCircuitBreaker() {
+    circuitBreaker = null;
+  }
+
+  /** Disables background refresh and cancels any scheduled refresh or retry. */
+  public final void disableBackgroundRefresh() {
+    lock.lock();
+    try {
+      backgroundRefreshOptions = null;
+      if (scheduledRefresh != null) {
+        scheduledRefresh.cancel(false);
+        scheduledRefresh = null;
+      }
+      // A cancelled retry would otherwise leave the flag set.
+      backgroundRefreshRunning.set(false);
+    } finally {
+      lock.unlock();
     }
   }
 
   // Must be called under lock
-  private void useAccessToken(AccessToken token) {
-    this.temporaryAccess = token;
-    this.requestMetadata =
-        Collections.singletonMap(
-            AuthHttpConstants.AUTHORIZATION,
-            Collections.singletonList(OAuth2Utils.BEARER_PREFIX + token.getTokenValue()));
+  private void scheduleBackgroundRefresh(final OAuthValue snapshot) {
+    final BackgroundRefreshOptions options = backgroundRefreshOptions;
+    if (options == null) {
+      return;
+    }
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
+      scheduledRefresh = null;
+    }
+    if (snapshot == null) {
+      return;
+    }
+    Long expiresIn = getExpiresInMilliseconds(snapshot);
+    if (expiresIn == null) {
+      return;
+    }
+    // Even a token already due for refresh is not refreshed again right away, so that tokens
+    // shorter lived than expected cannot make the refreshes follow each other without pause.
+    long delayMillis =
+        Math.max(
+            options.getRetryDelayMillis(),
+            expiresIn - getRefreshAheadMillis(options, snapshot) - options.nextJitterMillis());
+    try {
+      if (options.getWarmUpLeadMillis() > 0 && delayMillis > options.getWarmUpLeadMillis()) {
+        scheduleWarmUp(options, delayMillis - options.getWarmUpLeadMillis());
+      }
+      scheduledRefresh =
+          options
+              .getScheduler()
+              .schedule(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      if (backgroundRefreshRunning.compareAndSet(false, true)) {
+                        executeBackgroundRefresh(options, snapshot);
+                      }
+                    }
+                  },
+                  delayMillis,
+                  TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      LOGGER.log(Level.WARNING, "Unable to schedule background refresh of the access token", e);
+    }
+  }
+
+  /**
+   * Schedules opening the connection used by the refresh. It is not cancelled with the refresh,
+   * since an unneeded warm-up is harmless.
+   */
+  private void scheduleWarmUp(final BackgroundRefreshOptions options, long delayMillis) {
+    options
+        .getScheduler()
+        .schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  options
+                      .getRefreshExecutor()
+                      .execute(
+                          new Runnable() {
+                            @Override
+                            public void run() {
+                              try {
+                                warmUpConnection();
+                              } catch (IOException | RuntimeException e) {
+                                LOGGER.log(Level.FINE, "Connection warm-up failed", e);
+                              }
+                            }
+                          });
+                } catch (RejectedExecutionException e) {
+                  LOGGER.log(Level.FINE, "Unable to start connection warm-up", e);
+                }
+              }
+            },
+            delayMillis,
+            TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Opens the connection that the next refresh will use, ahead of the refresh. Does nothing unless
+   * overridden by credentials that refresh over HTTP.
+   */
+  void warmUpConnection() throws IOException {}
+
+  /**
+   * Starts a background refresh of a stale token unless one is already running, so that the calling
+   * thread can keep using the current token.
+   */
+  private void triggerBackgroundRefresh(final OAuthValue snapshot) {
+    BackgroundRefreshOptions options = backgroundRefreshOptions;
+    if (options == null || !backgroundRefreshRunning.compareAndSet(false, true)) {
+      return;
+    }
+    executeBackgroundRefresh(options, snapshot);
+  }
+
+  /** Runs a background refresh on the refresh executor. The caller must have set the flag. */
+  private void executeBackgroundRefresh(
+      BackgroundRefreshOptions options, final OAuthValue snapshot) {
+    try {
+      options
+          .getRefreshExecutor()
+          .execute(
+              new Runnable() {
+                @Override
+                public void run() {
+                  runBackgroundRefresh(snapshot);
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      backgroundRefreshRunning.set(false);
+      LOGGER.log(Level.WARNING, "Unable to start background refresh of the access token", e);
+    }
+  }
+
+  private void runBackgroundRefresh(OAuthValue snapshot) {
+    boolean retryScheduled = false;
+    try {
+      MetricsRecorder.lock(lock, this);
+      try {
+        // Unlike refresh(), the current token stays in place so callers are not blocked. The
+        // refresh is skipped if another thread has already replaced the token.
+        if (value == snapshot && backgroundRefreshOptions != null) {
+          checkRefreshAllowed();
+          refreshAndNotify(snapshot);
+        }
+      } finally {
+        lock.unlock();
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Background refresh of the access token failed", e);
+      retryScheduled = scheduleBackgroundRetry(snapshot);
+    } finally {
+      // While a retry is pending the flag stays set, so callers do not start another refresh.
+      if (!retryScheduled) {
+        backgroundRefreshRunning.set(false);
+      }
+    }
+    try {
+      dispatchChangeEvents();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Credentials change listener failed", e);
+    }
+  }
+
+  /**
+   * Schedules another background refresh after a failed one, as long as the token it was meant to
+   * replace is still current and usable.
+   */
+  private boolean scheduleBackgroundRetry(final OAuthValue snapshot) {
+    lock.lock();
+    try {
+      final BackgroundRefreshOptions options = backgroundRefreshOptions;
+      if (options == null || value != snapshot || getState(snapshot) == CacheState.EXPIRED) {
+        return false;
+      }
+      if (scheduledRefresh != null) {
+        scheduledRefresh.cancel(false);
+      }
+      try {
+        scheduledRefresh =
+            options
+                .getScheduler()
+                .schedule(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        executeBackgroundRefresh(options, snapshot);
+                      }
+                    },
+                    options.getRetryDelayMillis(),
+                    TimeUnit.MILLISECONDS);
+        return true;
+      } catch (RejectedExecutionException e) {
+        scheduledRefresh = null;
+        LOGGER.log(Level.WARNING, "Unable to schedule retry of the access token refresh", e);
+        return false;
+      }
+    } finally {
+      lock.unlock();
+    }
   }
 
   // Must be called under lock
-  // requestMetadata will never be null if false is returned.
-  private boolean shouldRefresh() {
-    Long expiresIn = getExpiresInMilliseconds();
-    return requestMetadata == null || expiresIn != null && expiresIn <= MINIMUM_TOKEN_MILLISECONDS;
+  private void useAccessToken(AccessToken token) {
+    this.value = new OAuthValue(token, clock, ticker, generations.incrementAndGet());
+  }
+
+  /**
+   * Returns the state of the given snapshot. Safe to call without the lock since the snapshot is
+   * immutable. The snapshot will never be null unless {@link CacheState#EXPIRED} is returned.
+   */
+  private CacheState getState(OAuthValue snapshot) {
+    if (snapshot == null) {
+      return CacheState.EXPIRED;
+    }
+    Long expiresIn = getExpiresInMilliseconds(snapshot);
+    if (expiresIn == null) {
+      return CacheState.FRESH;
+    }
+    long minimumTokenMillis = getMinimumTokenMillis();
+    BackgroundRefreshOptions options = backgroundRefreshOptions;
+    if (options != null && options.isStaleWhileRevalidate()) {
+      // Serve the token up to shortly before its hard expiry while it is refreshed in the
+      // background.
+      if (expiresIn <= options.getMinimumValidityMillis()) {
+        return CacheState.EXPIRED;
+      }
+    } else if (expiresIn <= minimumTokenMillis) {
+      return CacheState.EXPIRED;
+    }
+    if (options != null && expiresIn <= getRefreshAheadMillis(options, snapshot)) {
+      return CacheState.STALE;
+    }
+    return CacheState.FRESH;
+  }
+
+  /**
+   * Returns whether a token obtained elsewhere, such as from a cache shared with other credentials,
+   * is valid long enough to be used by these credentials, given their own refresh margin.
+   */
+  boolean isUsable(OAuthValue snapshot) {
+    return getState(snapshot) != CacheState.EXPIRED;
+  }
+
+  /**
+   * Returns the remaining validity below which callers wait for a refresh, derived from the
+   * observed refreshes if the adaptive margin is enabled.
+   */
+  private long getMinimumTokenMillis() {
+    RefreshLatencyTracker tracker = refreshLatencyTracker;
+    return tracker == null ? MINIMUM_TOKEN_MILLISECONDS : tracker.getMarginMillis();
+  }
+
+  /**
+   * Returns how long before the expiry of the token of the snapshot a background refresh is due:
+   * the configured margin, or the margin below which callers wait if that is longer. The margin is
+   * capped at half the lifetime of the token, so that a margin longer than the lifetime of the
+   * tokens issued does not make every new token due as soon as it is received.
+   */
+  private long getRefreshAheadMillis(BackgroundRefreshOptions options, OAuthValue snapshot) {
+    long marginMillis = Math.max(options.getRefreshMarginMillis(), getMinimumTokenMillis());
+    return Math.min(marginMillis, snapshot.lifetimeMillis / 2);
   }
 
   /**
@@ -217,40 +928,74 @@ public class OAuth2Credentials extends Credentials {
    * @param listener The listener to be added.
    */
   public final void addChangeListener(CredentialsChangedListener listener) {
-    synchronized (lock) {
+    lock.lock();
+    try {
       if (changeListeners == null) {
         changeListeners = new ArrayList<>();
       }
       changeListeners.add(listener);
+    } finally {
+      lock.unlock();
     }
   }
 
+  /**
+   * Sets the executor used to notify change listeners.
+   *
+   * <p>Listeners are always notified after the credentials lock is released, so a slow listener
+   * does not hold up other callers waiting for a token, and events for these credentials are
+   * delivered one at a time in the order of the changes. By default the thread that refreshed the
+   * token notifies the listeners and a listener failure is thrown to that thread. With an executor,
+   * the refreshing thread returns without waiting for the listeners and failures are logged.
+   *
+   * @param executor The executor to notify listeners on, or null to notify on the refreshing
+   *     thread.
+   */
+  public final void setChangeListenerExecutor(Executor executor) {
+    this.changeListenerExecutor = executor;
+  }
+
   /**
    * Removes a listener that was added previously.
    *
    * @param listener The listener to be removed.
    */
   public final void removeChangeListener(CredentialsChangedListener listener) {
-    synchronized (lock) {
+    lock.lock();
+    try {
       if (changeListeners != null) {
         changeListeners.remove(listener);
       }
+    } finally {
+      lock.unlock();
     }
   }
 
   /**
-   * Return the remaining time the current access token will be valid, or null if there is no token
-   * or expiry information. Must be called under lock.
+   * Returns the remaining time the current token will be valid, or null if there is no token or no
+   * expiry information.
    */
-  private Long getExpiresInMilliseconds() {
-    if (temporaryAccess == null) {
-      return null;
-    }
-    Date expirationTime = temporaryAccess.getExpirationTime();
-    if (expirationTime == null) {
-      return null;
-    }
-    return (expirationTime.getTime() - clock.currentTimeMillis());
+  Long getExpiresInMilliseconds() {
+    OAuthValue localValue = value;
+    return localValue == null ? null : getExpiresInMilliseconds(localValue);
+  }
+
+  /** Returns the duration of the last refresh attempt, or -1 if there was none. */
+  long getLastRefreshDurationNanos() {
+    return lastRefreshDurationNanos;
+  }
+
+  /** Returns the failure of the last refresh attempt, or null if it succeeded. */
+  Exception getLastRefreshError() {
+    return lastRefreshError;
+  }
+
+  /**
+   * Return the remaining time the token of the given snapshot will be valid, or null if there is no
+   * expiry information.
+   */
+  private Long getExpiresInMilliseconds(OAuthValue snapshot) {
+    return snapshot.getExpiresInMillis(clock, ticker);
   }
 
   /**
@@ -275,18 +1020,47 @@ public class OAuth2Credentials extends Credentials {
 
   @Override
   public int hashCode() {
-    return Objects.hash(requestMetadata, temporaryAccess);
+    return Objects.hash(getRequestMetadataInternal(), getAccessToken());
+  }
+
+  /**
+   * Returns the request metadata of the given snapshot, including the additional headers. They are
+   * combined on first use of the token and kept with it, so that serving a cached token does not
+   * allocate. Threads racing on first use may each combine them.
+   */
+  Map<String, List<String>> getRequestMetadata(OAuthValue snapshot) {
+    Map<String, List<String>> metadata = snapshot.metadataWithAdditionalHeaders;
+    if (metadata == null) {
+      metadata = snapshot.withAdditionalHeaders(getAdditionalHeaders());
+      snapshot.metadataWithAdditionalHeaders = metadata;
+    }
+    return metadata;
+  }
+
+  /**
+   * Returns headers to add to the request metadata of every token, such as the quota project.
+   *
+   * <p>Usually called once per token, but may be called more than once for the same token by
+   * concurrent callers. Implementations must be free of side effects and return the same headers
+   * for the lifetime of the credentials. Headers already present in the token metadata are not
+   * overridden.
+   *
+   * @return the additional headers, empty by default
+   */
+  protected Map<String, List<String>> getAdditionalHeaders() {
+    return Collections.emptyMap();
   }
 
   protected Map<String, List<String>> getRequestMetadataInternal() {
-    return requestMetadata;
+    OAuthValue localValue = value;
+    return localValue == null ? null : localValue.requestMetadata;
   }
 
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
-        .add("requestMetadata", requestMetadata)
-        .add("temporaryAccess", temporaryAccess)
+        .add("requestMetadata", getRequestMetadataInternal())
+        .add("temporaryAccess", getAccessToken())
         .toString();
   }
 
@@ -296,13 +1070,37 @@ public class OAuth2Credentials extends Credentials {
       return false;
     }
     OAuth2Credentials other = (OAuth2Credentials) obj;
-    return Objects.equals(this.requestMetadata, other.requestMetadata)
-        && Objects.equals(this.temporaryAccess, other.temporaryAccess);
+    return Objects.equals(this.getRequestMetadataInternal(), other.getRequestMetadataInternal())
+        && Objects.equals(this.getAccessToken(), other.getAccessToken());
+  }
+
+  private void writeObject(ObjectOutputStream output) throws IOException {
+    OAuthValue localValue = value;
+    ObjectOutputStream.PutField fields = output.putFields();
+    // Earlier versions synchronize on the deserialized lock object.
+    fields.put("lock", new byte[0]);
+    fields.put("requestMetadata", localValue == null ? null : localValue.requestMetadata);
+    fields.put("temporaryAccess", localValue == null ? null : localValue.temporaryAccess);
+    output.writeFields();
   }
 
   private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
-    input.defaultReadObject();
+    ObjectInputStream.GetField fields = input.readFields();
+    lock = new ReentrantLock();
+    waitersLock = new byte[0];
+    generations = new AtomicLong();
     clock = Clock.SYSTEM;
+    ticker = Ticker.systemTicker();
+    backgroundRefreshRunning = new AtomicBoolean();
+    pendingChangeEvents = new ConcurrentLinkedQueue<>();
+    changeEventsDispatching = new AtomicBoolean();
+    maxRefreshWaiters = DEFAULT_MAX_REFRESH_WAITERS;
+    lastRefreshDurationNanos = -1;
+    // The request metadata is derived from the token again.
+    AccessToken token = (AccessToken) fields.get("temporaryAccess", null);
+    if (token != null) {
+      useAccessToken(token);
+    }
   }
 
   @SuppressWarnings("unchecked")
@@ -326,6 +1124,110 @@ public class OAuth2Credentials extends Credentials {
     return new Builder(this);
   }
 
+  /** A caller of the asynchronous metadata request waiting for a refresh to complete. */
+  private static class RefreshWaiter {
+    final URI uri;
+    final RequestMetadataCallback callback;
+
+    RefreshWaiter(URI uri, RequestMetadataCallback callback) {
+      this.uri = uri;
+      this.callback = callback;
+    }
+  }
+
+  /** Freshness of the cached token. */
+  enum CacheState {
+    /** The token can be used without refreshing. */
+    FRESH,
+    /** The token is still valid, but a background refresh is due. */
+    STALE,
+    /** The token is missing or about to expire and callers must wait for a refresh. */
+    EXPIRED
+  }
+
+  /** Immutable snapshot of an access token and the request metadata derived from it. */
+  static class OAuthValue {
+
+    private final AccessToken temporaryAccess;
+    private final Map<String, List<String>> requestMetadata;
+    // The monotonic time at which the token expires, read from the given ticker when the token was
+    // received.
+    private final Ticker capturedTicker;
+    private final long expiresAtNanos;
+    // The validity of the token when it was received.
+    private final long lifetimeMillis;
+    private final long generation;
+    // Created on first use. Racing threads may create equal instances.
+    private volatile Map<String, List<String>> metadataWithAdditionalHeaders;
+    private RequestMetadataSnapshot snapshot;
+
+    OAuthValue(AccessToken temporaryAccess, Clock clock, Ticker ticker, long generation) {
+      this.temporaryAccess = temporaryAccess;
+      this.generation = generation;
+      Date expirationTime = temporaryAccess.getExpirationTime();
+      if (expirationTime == null) {
+        this.capturedTicker = null;
+        this.expiresAtNanos = 0;
+        this.lifetimeMillis = 0;
+      } else {
+        long nowNanos = ticker.read();
+        this.capturedTicker = ticker;
+        this.lifetimeMillis = expirationTime.getTime() - clock.currentTimeMillis();
+        this.expiresAtNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(lifetimeMillis);
+      }
+      this.requestMetadata =
+          ImmutableMap.<String, List<String>>of(
+              AuthHttpConstants.AUTHORIZATION,
+              ImmutableList.of(OAuth2Utils.BEARER_PREFIX + temporaryAccess.getTokenValue()));
+    }
+
+    AccessToken getAccessToken() {
+      return temporaryAccess;
+    }
+
+    /**
+     * Returns the remaining time the token will be valid, or null if there is no expiry
+     * information.
+     */
+    Long getExpiresInMillis(Clock clock, Ticker ticker) {
+      Date expirationTime = temporaryAccess.getExpirationTime();
+      if (expirationTime == null) {
+        return null;
+      }
+      if (capturedTicker == ticker) {
+        // Measure against the monotonic time captured with the token, so that a step of the wall
+        // clock does not make a whole fleet refresh at once or keep using expired tokens.
+        return TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - ticker.read());
+      }
+      // The snapshot was captured under another ticker.
+      return expirationTime.getTime() - clock.currentTimeMillis();
+    }
+
+    Map<String, List<String>> withAdditionalHeaders(Map<String, List<String>> additionalHeaders) {
+      if (additionalHeaders.isEmpty()) {
+        return requestMetadata;
+      }
+      ImmutableMap.Builder<String, List<String>> builder = ImmutableMap.builder();
+      builder.putAll(requestMetadata);
+      for (Map.Entry<String, List<String>> header : additionalHeaders.entrySet()) {
+        if (!requestMetadata.containsKey(header.getKey())) {
+          builder.put(header.getKey(), ImmutableList.copyOf(header.getValue()));
+        }
+      }
+      return builder.build();
+    }
+
+    RequestMetadataSnapshot getSnapshot(OAuth2Credentials credentials) {
+      RequestMetadataSnapshot localSnapshot = snapshot;
+      if (localSnapshot == null) {
+        localSnapshot =
+            new RequestMetadataSnapshot(generation, credentials.getRequestMetadata(this));
+        snapshot = localSnapshot;
+      }
+      return localSnapshot;
+    }
+  }
+
   public static class Builder {
 
     private AccessToken accessToken;
@@ -40,6 +40,7 @@ import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.auth.http.AuthHttpConstants;
 import com.google.auth.http.HttpTransportFactory;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -51,6 +52,7 @@ import java.math.BigDecimal;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
 import java.util.Collection;
 import java.util.Map;
 
@@ -68,6 +70,9 @@ class OAuth2Utils {
 
   static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
 
+  /** Parser for JSON responses, shared since it is immutable and thread-safe. */
+  static final JsonObjectParser JSON_PARSER = new JsonObjectParser(JSON_FACTORY);
+
   static final Charset UTF_8 = Charset.forName("UTF-8");
 
   private static String VALUE_NOT_FOUND_MESSAGE = "%sExpected value %s not found.";
@@ -96,6 +101,16 @@ class OAuth2Utils {
     return false;
   }
 
+  /**
+   * Returns a digest of the private key for identity keys, which tells apart keys that share a key
+   * ID without holding on to the key material. Keys that do not expose their encoding, such as keys
+   * held by a hardware module, stand for themselves.
+   */
+  static Object privateKeyDigest(PrivateKey privateKey) {
+    byte[] encoded = privateKey.getEncoded();
+    return encoded == null ? privateKey : Hashing.sha256().hashBytes(encoded);
+  }
+
   /** Parses the specified JSON text. */
   static GenericJson parseJson(String json) throws IOException {
     JsonObjectParser parser = new JsonObjectParser(OAuth2Utils.JSON_FACTORY);
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.security.PrivateKey;
+import java.util.Arrays;
+
+/**
+ * Shares one {@link PrivateKey} object per private key ID between service account credentials.
+ *
+ * <p>Credentials created from the same key file, or derived from each other, then hold a single
+ * copy of the key material instead of parsing and keeping their own. Keys are held weakly, so a key
+ * is discarded once no credentials use it any more. A key with the same ID but different material
+ * is used as is, without being shared.
+ */
+final class PrivateKeyRegistry {
+
+  private static final Cache<String, PrivateKey> KEYS =
+      CacheBuilder.newBuilder().weakValues().build();
+  private static final CacheAccessCounter ACCESS_COUNTER =
+      new CacheAccessCounter(MetricsRecorder.PRIVATE_KEY_REGISTRY);
+
+  private PrivateKeyRegistry() {}
+
+  /**
+   * Returns the shared key for the PKCS#8 data, parsing it only if no key with the ID and the same
+   * material is registered.
+   *
+   * @param privateKeyId the private key ID. May be null, in which case the key is not shared.
+   * @param privateKeyPkcs8 the private key in PKCS#8 PEM format
+   * @throws IOException if the PKCS#8 data cannot be parsed
+   */
+  static PrivateKey fromPkcs8(String privateKeyId, String privateKeyPkcs8) throws IOException {
+    if (privateKeyId != null) {
+      PrivateKey registered = KEYS.getIfPresent(privateKeyId);
+      if (registered != null
+          && Arrays.equals(
+              registered.getEncoded(), ServiceAccountCredentials.decodePkcs8(privateKeyPkcs8))) {
+        ACCESS_COUNTER.record(true);
+        return registered;
+      }
+    }
+    return intern(privateKeyId, ServiceAccountCredentials.privateKeyFromPkcs8(privateKeyPkcs8));
+  }
+
+  /**
+   * Returns the registered key equal to the given one, registering the given key if there is none.
+   *
+   * @param privateKeyId the private key ID. May be null, in which case the key is not shared.
+   * @param privateKey the private key
+   */
+  static PrivateKey intern(String privateKeyId, PrivateKey privateKey) {
+    if (privateKeyId == null) {
+      return privateKey;
+    }
+    PrivateKey registered = KEYS.asMap().putIfAbsent(privateKeyId, privateKey);
+    if (registered == privateKey) {
+      // Already shared, for example by credentials derived from other credentials.
+      return privateKey;
+    }
+    if (registered == null) {
+      ACCESS_COUNTER.record(false);
+      return privateKey;
+    }
+    boolean shared = registered.equals(privateKey);
+    ACCESS_COUNTER.record(shared);
+    return shared ? registered : privateKey;
+  }
+
+  @VisibleForTesting
+  static boolean isRegistered(String privateKeyId) {
+    return KEYS.getIfPresent(privateKeyId) != null;
+  }
+}
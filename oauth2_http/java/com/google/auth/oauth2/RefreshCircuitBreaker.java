@@ -0,0 +1,87 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the last refresh failure of one credential and suspends refreshes for a window that
+ * grows with each consecutive failure. Times are monotonic nanoseconds.
+ */
+final class RefreshCircuitBreaker {
+
+  private final CircuitBreakerOptions options;
+  // Guarded by this. A null failure means the breaker is closed.
+  private IOException lastFailure;
+  private long windowNanos;
+  private long openUntilNanos;
+
+  RefreshCircuitBreaker(CircuitBreakerOptions options) {
+    this.options = options;
+  }
+
+  /** Returns whether refreshes are currently suspended. */
+  synchronized boolean isOpen(long nowNanos) {
+    return lastFailure != null && nowNanos - openUntilNanos < 0;
+  }
+
+  /**
+   * Throws if refreshes are currently suspended. Once the window has passed the caller is let
+   * through as a probe.
+   */
+  synchronized void checkClosed(long nowNanos) throws IOException {
+    if (isOpen(nowNanos)) {
+      throw new IOException(
+          String.format(
+              "Refreshing the access token is suspended for another %d ms after a failure.",
+              TimeUnit.NANOSECONDS.toMillis(openUntilNanos - nowNanos)),
+          lastFailure);
+    }
+  }
+
+  synchronized void recordSuccess() {
+    lastFailure = null;
+    windowNanos = 0;
+  }
+
+  synchronized void recordFailure(IOException failure, long nowNanos) {
+    long maxWindowNanos = TimeUnit.MILLISECONDS.toNanos(options.getMaxWindowMillis());
+    if (windowNanos == 0) {
+      windowNanos = TimeUnit.MILLISECONDS.toNanos(options.getInitialWindowMillis());
+    } else {
+      windowNanos = (long) Math.min(maxWindowNanos, windowNanos * options.getWindowMultiplier());
+    }
+    lastFailure = failure;
+    openUntilNanos = nowNanos + windowNanos;
+  }
+}
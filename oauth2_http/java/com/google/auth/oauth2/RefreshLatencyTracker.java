@@ -0,0 +1,78 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the latency and failure rate of the refreshes of one credential as exponentially weighted
+ * moving averages, and derives the refresh margin from them.
+ */
+final class RefreshLatencyTracker {
+
+  // Weight of the latest observation in the moving averages.
+  private static final double SMOOTHING = 0.2;
+  // Failure rate at which the expected number of attempts stops growing.
+  private static final double MAX_FAILURE_RATE = 0.9;
+
+  private final AdaptiveMarginOptions options;
+  // Guarded by this. A negative latency means no refresh was observed yet.
+  private double latencyMillis = -1;
+  private double failureRate;
+  private volatile long marginMillis;
+
+  RefreshLatencyTracker(AdaptiveMarginOptions options) {
+    this.options = options;
+    this.marginMillis = options.getMaxMarginMillis();
+  }
+
+  /** Returns the current refresh margin. */
+  long getMarginMillis() {
+    return marginMillis;
+  }
+
+  /** Records a refresh that took the given time and either succeeded or failed. */
+  synchronized void record(long elapsedNanos, boolean success) {
+    failureRate = smooth(failureRate, success ? 0 : 1);
+    // Failed refreshes count as well, since a refresh that times out is the slowest of all.
+    double elapsedMillis = (double) TimeUnit.NANOSECONDS.toMicros(elapsedNanos) / 1000;
+    latencyMillis = latencyMillis < 0 ? elapsedMillis : smooth(latencyMillis, elapsedMillis);
+    double expectedAttempts = 1 / (1 - Math.min(failureRate, MAX_FAILURE_RATE));
+    long margin = (long) (latencyMillis * options.getLatencyMultiplier() * expectedAttempts);
+    marginMillis =
+        Math.max(options.getMinMarginMillis(), Math.min(options.getMaxMarginMillis(), margin));
+  }
+
+  private static double smooth(double average, double sample) {
+    return average + SMOOTHING * (sample - average);
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.common.base.MoreObjects;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request metadata together with the generation it belongs to.
+ *
+ * <p>The generation increases every time the credentials obtain new metadata, for example when a
+ * token is refreshed. Transports can keep headers derived from the metadata, such as pre-encoded
+ * bytes, and only rebuild them when the generation changes.
+ */
+public final class RequestMetadataSnapshot {
+
+  private final long generation;
+  private final Map<String, List<String>> requestMetadata;
+
+  RequestMetadataSnapshot(long generation, Map<String, List<String>> requestMetadata) {
+    this.generation = generation;
+    this.requestMetadata = requestMetadata;
+  }
+
+  /**
+   * Returns the generation of the metadata. A larger generation means newer metadata.
+   *
+   * @return the generation
+   */
+  public long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Returns the request metadata, as from {@link
+   * com.google.auth.Credentials#getRequestMetadata(java.net.URI)}.
+   *
+   * @return the request metadata
+   */
+  public Map<String, List<String>> getRequestMetadata() {
+    return requestMetadata;
+  }
+
+  @Override
+  public String toString() {
+    // The metadata holds secrets, so only the generation is included.
+    return MoreObjects.toStringHelper(this).add("generation", generation).toString();
+  }
+}
@@ -53,6 +53,8 @@ import com.google.api.client.util.PemReader;
 import com.google.api.client.util.PemReader.Section;
 import com.google.api.client.util.Preconditions;
 import com.google.api.client.util.SecurityUtils;
+import com.google.auth.IdentityKey;
+import com.google.auth.RequestMetadataCallback;
 import com.google.auth.ServiceAccountSigner;
 import com.google.auth.http.HttpTransportFactory;
 import com.google.common.annotations.Beta;
@@ -80,11 +82,14 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 
 /**
  * OAuth2 credentials representing a Service Account for calling Google APIs.
  *
- * <p>By default uses a JSON Web Token (JWT) to fetch access tokens.
+ * <p>By default uses a JSON Web Token (JWT) to fetch access tokens. With {@link
+ * Builder#setUseSelfSignedJwt(boolean)} the JWT is signed locally and sent to the APIs in place of
+ * an access token, without a request to the token server.
  */
 public class ServiceAccountCredentials extends GoogleCredentials
     implements ServiceAccountSigner, IdTokenProvider, JwtProvider, QuotaProjectIdProvider {
@@ -92,6 +97,7 @@ public class ServiceAccountCredentials extends GoogleCredentials
   private static final long serialVersionUID = 7807543542681217978L;
   private static final String GRANT_TYPE = "urn:ietf:params:oauth:grant-type:jwt-bearer";
   private static final String PARSE_ERROR_PREFIX = "Error parsing token refresh response. ";
+  private static final long JWT_LIFETIME_SECONDS = 3600;
 
   private final String clientId;
   private final String clientEmail;
@@ -103,8 +109,12 @@ public class ServiceAccountCredentials extends GoogleCredentials
   private final URI tokenServerUri;
   private final Collection<String> scopes;
   private final String quotaProjectId;
+  private final boolean useSelfSignedJwt;
 
   private transient HttpTransportFactory transportFactory;
+  private transient volatile ServiceAccountJwtAccessCredentials jwtAccess;
+  // Computed on first use, see OAuth2Utils.privateKeyDigest
+  private transient volatile Object privateKeyDigest;
 
   /**
    * Constructor with minimum identifying information and custom HTTP transport.
@@ -122,6 +132,8 @@ public class ServiceAccountCredentials extends GoogleCredentials
    *     authority to the service account.
    * @param projectId the project used for billing
    * @param quotaProjectId The project used for quota and billing purposes. May be null.
+   * @param useSelfSignedJwt Whether to use self-signed JWTs instead of access tokens from the token
+   *     server.
    */
   ServiceAccountCredentials(
       String clientId,
@@ -133,10 +145,12 @@ public class ServiceAccountCredentials extends GoogleCredentials
       URI tokenServerUri,
       String serviceAccountUser,
       String projectId,
-      String quotaProjectId) {
+      String quotaProjectId,
+      boolean useSelfSignedJwt) {
     this.clientId = clientId;
     this.clientEmail = Preconditions.checkNotNull(clientEmail);
-    this.privateKey = Preconditions.checkNotNull(privateKey);
+    this.privateKey =
+        PrivateKeyRegistry.intern(privateKeyId, Preconditions.checkNotNull(privateKey));
     this.privateKeyId = privateKeyId;
     this.scopes = (scopes == null) ? ImmutableSet.<String>of() : ImmutableSet.copyOf(scopes);
     this.transportFactory =
@@ -148,6 +162,7 @@ public class ServiceAccountCredentials extends GoogleCredentials
     this.serviceAccountUser = serviceAccountUser;
     this.projectId = projectId;
     this.quotaProjectId = quotaProjectId;
+    this.useSelfSignedJwt = useSelfSignedJwt;
   }
 
   /**
@@ -313,7 +328,7 @@ public class ServiceAccountCredentials extends GoogleCredentials
       String projectId,
       String quotaProject)
       throws IOException {
-    PrivateKey privateKey = privateKeyFromPkcs8(privateKeyPkcs8);
+    PrivateKey privateKey = PrivateKeyRegistry.fromPkcs8(privateKeyId, privateKeyPkcs8);
     return new ServiceAccountCredentials(
         clientId,
         clientEmail,
@@ -324,18 +339,13 @@ public class ServiceAccountCredentials extends GoogleCredentials
         tokenServerUri,
         serviceAccountUser,
         projectId,
-        quotaProject);
+        quotaProject,
+        false);
   }
 
   /** Helper to convert from a PKCS#8 String to an RSA private key */
   static PrivateKey privateKeyFromPkcs8(String privateKeyPkcs8) throws IOException {
-    Reader reader = new StringReader(privateKeyPkcs8);
-    Section section = PemReader.readFirstSectionAndClose(reader, "PRIVATE KEY");
-    if (section == null) {
-      throw new IOException("Invalid PKCS#8 data.");
-    }
-    byte[] bytes = section.getBase64DecodedBytes();
-    PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(bytes);
+    PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(decodePkcs8(privateKeyPkcs8));
     Exception unexpectedException;
     try {
       KeyFactory keyFactory = SecurityUtils.getRsaKeyFactory();
@@ -346,6 +356,16 @@ public class ServiceAccountCredentials extends GoogleCredentials
     throw new IOException("Unexpected exception reading PKCS#8 data", unexpectedException);
   }
 
+  /** Helper to decode the DER encoded key from a PKCS#8 String */
+  static byte[] decodePkcs8(String privateKeyPkcs8) throws IOException {
+    Reader reader = new StringReader(privateKeyPkcs8);
+    Section section = PemReader.readFirstSectionAndClose(reader, "PRIVATE KEY");
+    if (section == null) {
+      throw new IOException("Invalid PKCS#8 data.");
+    }
+    return section.getBase64DecodedBytes();
+  }
+
   /**
    * Returns credentials defined by a Service Account key file in JSON format from the Google
    * Developers Console.
@@ -393,8 +413,19 @@ public class ServiceAccountCredentials extends GoogleCredentials
             fileType, SERVICE_ACCOUNT_FILE_TYPE));
   }
 
+  @Override
+  void warmUpConnection() throws IOException {
+    // Self-signed JWTs are signed locally, without a request to warm up for.
+    if (!useSelfSignedJwt || serviceAccountUser != null) {
+      SharedHttpTransports.warmUp(transportFactory, new GenericUrl(tokenServerUri));
+    }
+  }
+
   /**
    * Refreshes the OAuth2 access token by getting a new access token using a JSON Web Token (JWT).
+   *
+   * <p>With self-signed JWTs enabled the JWT with the scopes is returned as the access token,
+   * unless domain-wide delegation requires the token server.
    */
   @Override
   public AccessToken refreshAccessToken() throws IOException {
@@ -406,16 +437,38 @@ public class ServiceAccountCredentials extends GoogleCredentials
 
     JsonFactory jsonFactory = OAuth2Utils.JSON_FACTORY;
     long currentTime = clock.currentTimeMillis();
-    String assertion = createAssertion(jsonFactory, currentTime, tokenServerUri.toString());
+    if (useSelfSignedJwt && serviceAccountUser == null) {
+      return createSelfSignedJwt(jsonFactory, currentTime);
+    }
+    return exchangeAssertion(
+        createAssertion(jsonFactory, currentTime, tokenServerUri.toString(), serviceAccountUser));
+  }
 
+  /**
+   * Gets an access token for the service account acting on behalf of the user, as {@link
+   * #createDelegated(String)} credentials would, without creating them.
+   */
+  AccessToken refreshDelegatedAccessToken(String user) throws IOException {
+    if (createScopedRequired()) {
+      throw new IOException(
+          "Scopes not configured for service account. Scoped should be specified"
+              + " by calling createScoped or passing scopes to constructor.");
+    }
+    return exchangeAssertion(
+        createAssertion(
+            OAuth2Utils.JSON_FACTORY, clock.currentTimeMillis(), tokenServerUri.toString(), user));
+  }
+
+  private AccessToken exchangeAssertion(String assertion) throws IOException {
     GenericData tokenRequest = new GenericData();
     tokenRequest.set("grant_type", GRANT_TYPE);
     tokenRequest.set("assertion", assertion);
     UrlEncodedContent content = new UrlEncodedContent(tokenRequest);
 
-    HttpRequestFactory requestFactory = transportFactory.create().createRequestFactory();
+    HttpRequestFactory requestFactory = SharedHttpTransports.getRequestFactory(transportFactory);
     HttpRequest request = requestFactory.buildPostRequest(new GenericUrl(tokenServerUri), content);
-    request.setParser(new JsonObjectParser(jsonFactory));
+    request.setParser(OAuth2Utils.JSON_PARSER);
+    AuthTracer.getDefault().injectTraceHeaders(request);
 
     request.setIOExceptionHandler(new HttpBackOffIOExceptionHandler(new ExponentialBackOff()));
     request.setUnsuccessfulResponseHandler(
@@ -453,6 +506,63 @@ public class ServiceAccountCredentials extends GoogleCredentials
     return new AccessToken(accessToken, new Date(expiresAtMilliseconds));
   }
 
+  /**
+   * Provides the request metadata. Without scopes and with self-signed JWTs enabled, a JWT with the
+   * audience of the URI is signed locally, as by {@link ServiceAccountJwtAccessCredentials}.
+   */
+  @Override
+  public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
+    if (useAudienceJwt(uri)) {
+      return getJwtAccess().getRequestMetadata(uri);
+    }
+    return super.getRequestMetadata(uri);
+  }
+
+  @Override
+  public void getRequestMetadata(URI uri, Executor executor, RequestMetadataCallback callback) {
+    if (useAudienceJwt(uri)) {
+      // Signing doesn't use the network, so it is done in the current thread.
+      blockingGetToCallback(uri, callback);
+      return;
+    }
+    super.getRequestMetadata(uri, executor, callback);
+  }
+
+  /**
+   * Returns the request metadata with its generation. JWTs for the audience of the URI and access
+   * tokens draw their generations from one counter, so snapshots for different audiences never
+   * share a generation.
+   */
+  @Override
+  public RequestMetadataSnapshot getRequestMetadataSnapshot(URI uri) throws IOException {
+    if (useAudienceJwt(uri)) {
+      return getJwtAccess().getJwtCredentials(uri).getRequestMetadataSnapshot(uri);
+    }
+    return super.getRequestMetadataSnapshot(uri);
+  }
+
+  private boolean useAudienceJwt(URI uri) {
+    return useSelfSignedJwt && uri != null && createScopedRequired() && serviceAccountUser == null;
+  }
+
+  private ServiceAccountJwtAccessCredentials getJwtAccess() {
+    ServiceAccountJwtAccessCredentials local = jwtAccess;
+    if (local == null) {
+      // Racing threads may each build one; they are equivalent.
+      local =
+          ServiceAccountJwtAccessCredentials.newBuilder()
+              .setClientId(clientId)
+              .setClientEmail(clientEmail)
+              .setPrivateKey(privateKey)
+              .setPrivateKeyId(privateKeyId)
+              .setQuotaProjectId(quotaProjectId)
+              .setGenerations(generations)
+              .build();
+      jwtAccess = local;
+    }
+    return local;
+  }
+
   /**
    * Returns a Google ID Token from the metadata server on ComputeEngine.
    *
@@ -466,27 +576,36 @@ public class ServiceAccountCredentials extends GoogleCredentials
   @Override
   public IdToken idTokenWithAudience(String targetAudience, List<Option> options)
       throws IOException {
-
-    JsonFactory jsonFactory = OAuth2Utils.JSON_FACTORY;
-    long currentTime = clock.currentTimeMillis();
-    String assertion =
-        createAssertionForIdToken(
-            jsonFactory, currentTime, tokenServerUri.toString(), targetAudience);
-
-    GenericData tokenRequest = new GenericData();
-    tokenRequest.set("grant_type", GRANT_TYPE);
-    tokenRequest.set("assertion", assertion);
-    UrlEncodedContent content = new UrlEncodedContent(tokenRequest);
-
-    HttpRequestFactory requestFactory = transportFactory.create().createRequestFactory();
-    HttpRequest request = requestFactory.buildPostRequest(new GenericUrl(tokenServerUri), content);
-    request.setParser(new JsonObjectParser(jsonFactory));
-    HttpResponse response = request.execute();
-
-    GenericData responseData = response.parseAs(GenericData.class);
-    String rawToken = OAuth2Utils.validateString(responseData, "id_token", PARSE_ERROR_PREFIX);
-
-    return IdToken.create(rawToken);
+    AuthTracer.Span span = AuthTracer.getDefault().startSpan(AuthTracer.ID_TOKEN_SPAN, this);
+    try {
+      JsonFactory jsonFactory = OAuth2Utils.JSON_FACTORY;
+      long currentTime = clock.currentTimeMillis();
+      String assertion =
+          createAssertionForIdToken(
+              jsonFactory, currentTime, tokenServerUri.toString(), targetAudience);
+
+      GenericData tokenRequest = new GenericData();
+      tokenRequest.set("grant_type", GRANT_TYPE);
+      tokenRequest.set("assertion", assertion);
+      UrlEncodedContent content = new UrlEncodedContent(tokenRequest);
+
+      HttpRequestFactory requestFactory = SharedHttpTransports.getRequestFactory(transportFactory);
+      HttpRequest request =
+          requestFactory.buildPostRequest(new GenericUrl(tokenServerUri), content);
+      request.setParser(OAuth2Utils.JSON_PARSER);
+      AuthTracer.getDefault().injectTraceHeaders(request);
+      HttpResponse response = request.execute();
+
+      GenericData responseData = response.parseAs(GenericData.class);
+      String rawToken = OAuth2Utils.validateString(responseData, "id_token", PARSE_ERROR_PREFIX);
+
+      return IdToken.create(rawToken);
+    } catch (IOException | RuntimeException e) {
+      span.recordError(e);
+      throw e;
+    } finally {
+      span.end();
+    }
   }
 
   /** Returns whether the scopes are empty, meaning createScoped must be called before use. */
@@ -496,23 +615,26 @@ public class ServiceAccountCredentials extends GoogleCredentials
   }
 
   /**
-   * Clones the service account with the specified scopes.
+   * Clones the service account with the specified scopes. Clones with an equal set of scopes share
+   * their access token.
    *
    * <p>Should be called before use for instances with empty scopes.
    */
   @Override
-  public GoogleCredentials createScoped(Collection<String> newScopes) {
-    return new ServiceAccountCredentials(
-        clientId,
-        clientEmail,
-        privateKey,
-        privateKeyId,
-        newScopes,
-        transportFactory,
-        tokenServerUri,
-        serviceAccountUser,
-        projectId,
-        quotaProjectId);
+  public GoogleCredentials createScoped(final Collection<String> newScopes) {
+    return shareVariantTokens(
+        new ServiceAccountCredentials(
+            clientId,
+            clientEmail,
+            privateKey,
+            privateKeyId,
+            newScopes,
+            transportFactory,
+            tokenServerUri,
+            serviceAccountUser,
+            projectId,
+            quotaProjectId,
+            useSelfSignedJwt));
   }
 
   @Override
@@ -527,7 +649,8 @@ public class ServiceAccountCredentials extends GoogleCredentials
         tokenServerUri,
         user,
         projectId,
-        quotaProjectId);
+        quotaProjectId,
+        useSelfSignedJwt);
   }
 
   public final String getClientId() {
@@ -562,6 +685,10 @@ public class ServiceAccountCredentials extends GoogleCredentials
     return tokenServerUri;
   }
 
+  public final boolean getUseSelfSignedJwt() {
+    return useSelfSignedJwt;
+  }
+
   @Override
   public String getAccount() {
     return getClientEmail();
@@ -569,13 +696,23 @@ public class ServiceAccountCredentials extends GoogleCredentials
 
   @Override
   public byte[] sign(byte[] toSign) {
+    AuthEvent event = AuthEvent.begin(AuthEvent.Operation.SIGN, getClass().getName());
+    AuthTracer.Span span = AuthTracer.getDefault().startSpan(AuthTracer.SIGN_SPAN, this);
+    boolean success = false;
     try {
       Signature signer = Signature.getInstance(OAuth2Utils.SIGNATURE_ALGORITHM);
       signer.initSign(getPrivateKey());
       signer.update(toSign);
-      return signer.sign();
+      byte[] signature = signer.sign();
+      success = true;
+      return signature;
     } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException ex) {
-      throw new SigningException("Failed to sign the provided bytes", ex);
+      SigningException error = new SigningException("Failed to sign the provided bytes", ex);
+      span.recordError(error);
+      throw error;
+    } finally {
+      event.end(success);
+      span.end();
     }
   }
 
@@ -598,10 +735,57 @@ public class ServiceAccountCredentials extends GoogleCredentials
         .build();
   }
 
+  /**
+   * Returns a key identifying the service account, its key, scopes, delegated user and token
+   * server.
+   */
   @Override
-  public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
-    Map<String, List<String>> requestMetadata = super.getRequestMetadata(uri);
-    return addQuotaProjectIdToRequestMetadata(quotaProjectId, requestMetadata);
+  public IdentityKey getIdentityKey() {
+    return IdentityKey.of(
+        getClass().getName(),
+        clientEmail,
+        privateKeyId,
+        getPrivateKeyDigest(),
+        ImmutableSet.copyOf(scopes),
+        serviceAccountUser,
+        tokenServerUri,
+        useSelfSignedJwt);
+  }
+
+  @Override
+  Object getTokenCacheKey() {
+    return getIdentityKey();
+  }
+
+  @Override
+  Object getTokenPrincipalKey() {
+    return IdentityKey.of(
+        getClass().getName(),
+        clientEmail,
+        privateKeyId,
+        getPrivateKeyDigest(),
+        serviceAccountUser,
+        tokenServerUri,
+        useSelfSignedJwt);
+  }
+
+  private Object getPrivateKeyDigest() {
+    Object digest = privateKeyDigest;
+    if (digest == null) {
+      digest = OAuth2Utils.privateKeyDigest(privateKey);
+      privateKeyDigest = digest;
+    }
+    return digest;
+  }
+
+  @Override
+  Collection<String> getTokenScopes() {
+    return scopes;
+  }
+
+  @Override
+  protected Map<String, List<String>> getAdditionalHeaders() {
+    return getQuotaProjectIdHeaders(quotaProjectId);
   }
 
   @Override
@@ -614,7 +798,8 @@ public class ServiceAccountCredentials extends GoogleCredentials
         transportFactoryClassName,
         tokenServerUri,
         scopes,
-        quotaProjectId);
+        quotaProjectId,
+        useSelfSignedJwt);
   }
 
   @Override
@@ -628,6 +813,7 @@ public class ServiceAccountCredentials extends GoogleCredentials
         .add("scopes", scopes)
         .add("serviceAccountUser", serviceAccountUser)
         .add("quotaProjectId", quotaProjectId)
+        .add("useSelfSignedJwt", useSelfSignedJwt)
         .toString();
   }
 
@@ -644,11 +830,18 @@ public class ServiceAccountCredentials extends GoogleCredentials
         && Objects.equals(this.transportFactoryClassName, other.transportFactoryClassName)
         && Objects.equals(this.tokenServerUri, other.tokenServerUri)
         && Objects.equals(this.scopes, other.scopes)
-        && Objects.equals(this.quotaProjectId, other.quotaProjectId);
+        && Objects.equals(this.quotaProjectId, other.quotaProjectId)
+        && this.useSelfSignedJwt == other.useSelfSignedJwt;
   }
 
   String createAssertion(JsonFactory jsonFactory, long currentTime, String audience)
       throws IOException {
+    return createAssertion(jsonFactory, currentTime, audience, serviceAccountUser);
+  }
+
+  private String createAssertion(
+      JsonFactory jsonFactory, long currentTime, String audience, String subject)
+      throws IOException {
     JsonWebSignature.Header header = new JsonWebSignature.Header();
     header.setAlgorithm("RS256");
     header.setType("JWT");
@@ -658,7 +851,7 @@ public class ServiceAccountCredentials extends GoogleCredentials
     payload.setIssuer(clientEmail);
     payload.setIssuedAtTimeSeconds(currentTime / 1000);
     payload.setExpirationTimeSeconds(currentTime / 1000 + 3600);
-    payload.setSubject(serviceAccountUser);
+    payload.setSubject(subject);
     payload.put("scope", Joiner.on(' ').join(scopes));
 
     if (audience == null) {
@@ -667,12 +860,44 @@ public class ServiceAccountCredentials extends GoogleCredentials
       payload.setAudience(audience);
     }
 
-    String assertion;
+    return signAssertion(jsonFactory, header, payload);
+  }
+
+  /**
+   * Signs a JWT with the scopes to be sent to the APIs as the access token, without exchanging it
+   * at the token server.
+   */
+  private AccessToken createSelfSignedJwt(JsonFactory jsonFactory, long currentTime)
+      throws IOException {
+    JsonWebSignature.Header header = new JsonWebSignature.Header();
+    header.setAlgorithm("RS256");
+    header.setType("JWT");
+    header.setKeyId(privateKeyId);
+
+    long expirationTimeSeconds = currentTime / 1000 + JWT_LIFETIME_SECONDS;
+    JsonWebToken.Payload payload = new JsonWebToken.Payload();
+    payload.setIssuer(clientEmail);
+    payload.setSubject(clientEmail);
+    payload.setIssuedAtTimeSeconds(currentTime / 1000);
+    payload.setExpirationTimeSeconds(expirationTimeSeconds);
+    payload.put("scope", Joiner.on(' ').join(scopes));
+
+    String jwt = signAssertion(jsonFactory, header, payload);
+    return new AccessToken(jwt, new Date(expirationTimeSeconds * 1000));
+  }
+
+  private String signAssertion(
+      JsonFactory jsonFactory, JsonWebSignature.Header header, JsonWebToken.Payload payload)
+      throws IOException {
+    String assertion = null;
+    AuthEvent event = AuthEvent.begin(AuthEvent.Operation.CREATE_ASSERTION, getClass().getName());
     try {
       assertion = JsonWebSignature.signUsingRsaSha256(privateKey, jsonFactory, header, payload);
     } catch (GeneralSecurityException e) {
       throw new IOException(
           "Error signing service account access token request with private key.", e);
+    } finally {
+      event.end(assertion != null);
     }
     return assertion;
   }
@@ -742,6 +967,7 @@ public class ServiceAccountCredentials extends GoogleCredentials
     private Collection<String> scopes;
     private HttpTransportFactory transportFactory;
     private String quotaProjectId;
+    private boolean useSelfSignedJwt;
 
     protected Builder() {}
 
@@ -756,6 +982,7 @@ public class ServiceAccountCredentials extends GoogleCredentials
       this.serviceAccountUser = credentials.serviceAccountUser;
       this.projectId = credentials.projectId;
       this.quotaProjectId = credentials.quotaProjectId;
+      this.useSelfSignedJwt = credentials.useSelfSignedJwt;
     }
 
     public Builder setClientId(String clientId) {
@@ -808,6 +1035,20 @@ public class ServiceAccountCredentials extends GoogleCredentials
       return this;
     }
 
+    /**
+     * Sets whether to send self-signed JWTs to the APIs instead of access tokens from the token
+     * server. The JWT carries the scopes, or the audience of the request URI when there are no
+     * scopes, and is signed locally without a network request. Only APIs accepting self-signed JWTs
+     * may be called, and credentials delegating domain-wide authority still use the token server.
+     *
+     * @param useSelfSignedJwt whether to use self-signed JWTs
+     * @return this builder
+     */
+    public Builder setUseSelfSignedJwt(boolean useSelfSignedJwt) {
+      this.useSelfSignedJwt = useSelfSignedJwt;
+      return this;
+    }
+
     public String getClientId() {
       return clientId;
     }
@@ -848,6 +1089,10 @@ public class ServiceAccountCredentials extends GoogleCredentials
       return quotaProjectId;
     }
 
+    public boolean getUseSelfSignedJwt() {
+      return useSelfSignedJwt;
+    }
+
     public ServiceAccountCredentials build() {
       return new ServiceAccountCredentials(
           clientId,
@@ -859,7 +1104,8 @@ public class ServiceAccountCredentials extends GoogleCredentials
           tokenServerUri,
           serviceAccountUser,
           projectId,
-          quotaProjectId);
+          quotaProjectId,
+          useSelfSignedJwt);
     }
   }
 }
@@ -32,7 +32,7 @@
 package com.google.auth.oauth2;
 
 import static com.google.auth.oauth2.GoogleCredentials.SERVICE_ACCOUNT_FILE_TYPE;
-import static com.google.auth.oauth2.GoogleCredentials.addQuotaProjectIdToRequestMetadata;
+import static com.google.auth.oauth2.GoogleCredentials.getQuotaProjectIdHeaders;
 
 import com.google.api.client.json.GenericJson;
 import com.google.api.client.json.JsonFactory;
@@ -40,12 +40,14 @@ import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.util.Clock;
 import com.google.api.client.util.Preconditions;
 import com.google.auth.Credentials;
+import com.google.auth.IdentityKey;
 import com.google.auth.RequestMetadataCallback;
 import com.google.auth.ServiceAccountSigner;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Throwables;
 import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -65,6 +67,7 @@ import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Service Account credentials for calling Google APIs using a JWT directly for access.
@@ -88,9 +91,15 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
   private final String quotaProjectId;
 
   private transient LoadingCache<JwtClaims, JwtCredentials> credentialsCache;
+  private transient CacheAccessCounter cacheAccessCounter;
+  // Shared by the JWTs of all audiences, so that their generations never repeat
+  private transient AtomicLong generations;
+  // Computed on first use, see OAuth2Utils.privateKeyDigest
+  private transient volatile Object privateKeyDigest;
 
   // Until we expose this to the users it can remain transient and non-serializable
   @VisibleForTesting transient Clock clock = Clock.SYSTEM;
+  @VisibleForTesting transient Ticker ticker = Ticker.systemTicker();
 
   /**
    * Constructor with minimum identifying information.
@@ -105,7 +114,7 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
   @Deprecated
   public ServiceAccountJwtAccessCredentials(
       String clientId, String clientEmail, PrivateKey privateKey, String privateKeyId) {
-    this(clientId, clientEmail, privateKey, privateKeyId, null, null);
+    this(clientId, clientEmail, privateKey, privateKeyId, null, null, new AtomicLong());
   }
 
   /**
@@ -123,13 +132,17 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
       PrivateKey privateKey,
       String privateKeyId,
       URI defaultAudience,
-      String quotaProjectId) {
+      String quotaProjectId,
+      AtomicLong generations) {
     this.clientId = clientId;
     this.clientEmail = Preconditions.checkNotNull(clientEmail);
-    this.privateKey = Preconditions.checkNotNull(privateKey);
+    this.privateKey =
+        PrivateKeyRegistry.intern(privateKeyId, Preconditions.checkNotNull(privateKey));
     this.privateKeyId = privateKeyId;
     this.defaultAudience = defaultAudience;
+    this.generations = generations;
     this.credentialsCache = createCache();
+    this.cacheAccessCounter = new CacheAccessCounter(MetricsRecorder.JWT_ACCESS_CACHE);
     this.quotaProjectId = quotaProjectId;
   }
 
@@ -219,9 +232,15 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
       URI defaultAudience,
       String quotaProjectId)
       throws IOException {
-    PrivateKey privateKey = ServiceAccountCredentials.privateKeyFromPkcs8(privateKeyPkcs8);
+    PrivateKey privateKey = PrivateKeyRegistry.fromPkcs8(privateKeyId, privateKeyPkcs8);
     return new ServiceAccountJwtAccessCredentials(
-        clientId, clientEmail, privateKey, privateKeyId, defaultAudience, quotaProjectId);
+        clientId,
+        clientEmail,
+        privateKey,
+        privateKeyId,
+        defaultAudience,
+        quotaProjectId,
+        new AtomicLong());
   }
 
   /**
@@ -277,7 +296,7 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
             new Ticker() {
               @Override
               public long read() {
-                return TimeUnit.MILLISECONDS.toNanos(clock.currentTimeMillis());
+                return ticker.read();
               }
             })
         .build(
@@ -290,6 +309,9 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
                     .setJwtClaims(claims)
                     .setLifeSpanSeconds(LIFE_SPAN_SECS)
                     .setClock(clock)
+                    .setTicker(ticker)
+                    .setGenerations(generations)
+                    .setAdditionalHeaders(getQuotaProjectIdHeaders(quotaProjectId))
                     .build();
               }
             });
@@ -315,6 +337,7 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
         .setJwtClaims(claimsBuilder.build().merge(newClaims))
         .setLifeSpanSeconds(LIFE_SPAN_SECS)
         .setClock(clock)
+        .setTicker(ticker)
         .build();
   }
 
@@ -344,6 +367,12 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
   /** Provide the request metadata by putting an access JWT directly in the metadata. */
   @Override
   public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
+    // The quota project header is part of the metadata cached for each JWT.
+    return getJwtCredentials(uri).getRequestMetadata(uri);
+  }
+
+  /** Returns the cached credentials signing access JWTs for the audience of the URI. */
+  JwtCredentials getJwtCredentials(URI uri) throws IOException {
     if (uri == null) {
       if (defaultAudience != null) {
         uri = defaultAudience;
@@ -361,9 +390,12 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
               .setIssuer(clientEmail)
               .setSubject(clientEmail)
               .build();
-      JwtCredentials credentials = credentialsCache.get(defaultClaims);
-      Map<String, List<String>> requestMetadata = credentials.getRequestMetadata(uri);
-      return addQuotaProjectIdToRequestMetadata(quotaProjectId, requestMetadata);
+      JwtCredentials credentials = credentialsCache.getIfPresent(defaultClaims);
+      cacheAccessCounter.record(credentials != null);
+      if (credentials == null) {
+        credentials = credentialsCache.get(defaultClaims);
+      }
+      return credentials;
     } catch (ExecutionException e) {
       Throwables.propagateIfPossible(e.getCause(), IOException.class);
       // Should never happen
@@ -378,6 +410,14 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
     }
   }
 
+  Cache<JwtClaims, JwtCredentials> getCredentialsCache() {
+    return credentialsCache;
+  }
+
+  CacheAccessCounter getCacheAccessCounter() {
+    return cacheAccessCounter;
+  }
+
   /** Discard any cached data */
   @Override
   public void refresh() {
@@ -417,6 +457,17 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
     }
   }
 
+  /** Returns a key identifying the service account, its key and the default audience. */
+  @Override
+  public IdentityKey getIdentityKey() {
+    Object digest = privateKeyDigest;
+    if (digest == null) {
+      digest = OAuth2Utils.privateKeyDigest(privateKey);
+      privateKeyDigest = digest;
+    }
+    return IdentityKey.of(getClass().getName(), clientEmail, privateKeyId, digest, defaultAudience);
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(
@@ -451,7 +502,10 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
   private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
     input.defaultReadObject();
     clock = Clock.SYSTEM;
+    ticker = Ticker.systemTicker();
+    generations = new AtomicLong();
     credentialsCache = createCache();
+    cacheAccessCounter = new CacheAccessCounter(MetricsRecorder.JWT_ACCESS_CACHE);
   }
 
   public static Builder newBuilder() {
@@ -475,6 +529,7 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
     private String privateKeyId;
     private URI defaultAudience;
     private String quotaProjectId;
+    private AtomicLong generations;
 
     protected Builder() {}
 
@@ -541,9 +596,21 @@ public class ServiceAccountJwtAccessCredentials extends Credentials
       return quotaProjectId;
     }
 
+    /** The counter to draw generations of the request metadata from, shared between credentials. */
+    Builder setGenerations(AtomicLong generations) {
+      this.generations = Preconditions.checkNotNull(generations);
+      return this;
+    }
+
     public ServiceAccountJwtAccessCredentials build() {
       return new ServiceAccountJwtAccessCredentials(
-          clientId, clientEmail, privateKey, privateKeyId, defaultAudience, quotaProjectId);
+          clientId,
+          clientEmail,
+          privateKey,
+          privateKeyId,
+          defaultAudience,
+          quotaProjectId,
+          generations == null ? new AtomicLong() : generations);
     }
   }
 }
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.auth.Credentials;
+import com.google.auth.IdentityKey;
+import com.google.auth.RequestMetadataCallback;
+import com.google.auth.http.HttpTransportFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service account credentials of many tenants, loaded from their JSON key files on first use.
+ *
+ * <p>Building {@link ServiceAccountCredentials} from every key up front keeps all private keys and
+ * tokens resident. The manager instead only knows where each key is, parses it when its tenant is
+ * first used, and discards the parsed credentials, with their private key and token, once they are
+ * idle or the number of loaded tenants exceeds its budget. They are parsed again on next use.
+ *
+ * <pre><code>
+ * ServiceAccountKeyManager manager = ServiceAccountKeyManager.newBuilder()
+ *     .setKeyDirectory(new File("/etc/keys"))
+ *     .setScopes(Collections.singleton("https://www.googleapis.com/auth/cloud-platform"))
+ *     .setMaximumLoadedKeys(1000)
+ *     .build();
+ * Credentials tenantCredentials = manager.getCredentials("tenant-a");
+ * </code></pre>
+ */
+public final class ServiceAccountKeyManager {
+
+  static final long DEFAULT_MAXIMUM_LOADED_KEYS = 1000;
+  static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final String KEY_FILE_SUFFIX = ".json";
+
+  /** Opens the JSON key file of a tenant. */
+  public interface KeySource {
+
+    /**
+     * Opens the JSON key file of the tenant. The stream is closed by the caller.
+     *
+     * @param tenant the name of the tenant
+     * @return the stream of the key file
+     * @throws IOException if there is no key for the tenant or it could not be opened
+     */
+    InputStream openKey(String tenant) throws IOException;
+  }
+
+  private final KeySource keySource;
+  private final List<String> scopes;
+  private final HttpTransportFactory transportFactory;
+  private final Cache<String, ServiceAccountCredentials> loadedCredentials;
+  private final CacheAccessCounter accessCounter =
+      new CacheAccessCounter(MetricsRecorder.SERVICE_ACCOUNT_KEYS);
+  private final KeyedCredentials.Backend backend =
+      new KeyedCredentials.Backend() {
+        @Override
+        public IdentityKey getIdentityKey(String tenant) {
+          // The manager compares by identity, so handles of different managers never share tokens.
+          return IdentityKey.of(
+              ServiceAccountKeyManager.class.getName(), ServiceAccountKeyManager.this, tenant);
+        }
+
+        @Override
+        public boolean getRequestMetadataIfReady(
+            String tenant, URI uri, Executor executor, RequestMetadataCallback callback) {
+          ServiceAccountCredentials loaded = loadedCredentials.getIfPresent(tenant);
+          if (loaded == null) {
+            // Reading the key blocks, so it is loaded on the executor.
+            return false;
+          }
+          accessCounter.record(true);
+          loaded.getRequestMetadata(uri, executor, callback);
+          return true;
+        }
+
+        @Override
+        public Map<String, List<String>> getRequestMetadata(String tenant, URI uri)
+            throws IOException {
+          return getServiceAccountCredentials(tenant).getRequestMetadata(uri);
+        }
+
+        @Override
+        public void refresh(String tenant) throws IOException {
+          getServiceAccountCredentials(tenant).refresh();
+        }
+      };
+
+  private ServiceAccountKeyManager(Builder builder) {
+    this.keySource = Preconditions.checkNotNull(builder.keySource, "keySource");
+    this.scopes = builder.scopes;
+    this.transportFactory = builder.transportFactory;
+    this.loadedCredentials =
+        CacheBuilder.newBuilder()
+            .maximumSize(builder.maximumLoadedKeys)
+            .expireAfterAccess(builder.idleTimeoutMillis, TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns lightweight credentials for the tenant, backed by this manager. The key of the tenant
+   * is only read when they are first used. They cannot be serialized.
+   *
+   * @param tenant the name of the tenant
+   * @return the credentials of the tenant
+   */
+  public Credentials getCredentials(String tenant) {
+    return new KeyedCredentials(backend, Preconditions.checkNotNull(tenant));
+  }
+
+  /**
+   * Returns the credentials of the tenant, parsing its key if it is not loaded.
+   *
+   * @param tenant the name of the tenant
+   * @return the credentials of the tenant
+   * @throws IOException if the key could not be read or parsed
+   */
+  public ServiceAccountCredentials getServiceAccountCredentials(final String tenant)
+      throws IOException {
+    Preconditions.checkNotNull(tenant);
+    ServiceAccountCredentials credentials = loadedCredentials.getIfPresent(tenant);
+    accessCounter.record(credentials != null);
+    if (credentials != null) {
+      return credentials;
+    }
+    try {
+      return loadedCredentials.get(
+          tenant,
+          new Callable<ServiceAccountCredentials>() {
+            @Override
+            public ServiceAccountCredentials call() throws IOException {
+              return loadCredentials(tenant);
+            }
+          });
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IllegalStateException(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Returns the tenants found in the key directory, or null if the keys come from a {@link
+   * KeySource}.
+   *
+   * @return the tenants of the key directory
+   */
+  public Set<String> getKeyDirectoryTenants() {
+    return keySource instanceof DirectoryKeySource
+        ? ((DirectoryKeySource) keySource).getTenants()
+        : null;
+  }
+
+  /**
+   * Discards the parsed key and token of the tenant. They are loaded again on next use, for example
+   * after the key file was rotated.
+   *
+   * @param tenant the name of the tenant
+   */
+  public void invalidate(String tenant) {
+    loadedCredentials.invalidate(tenant);
+  }
+
+  /** Discards the parsed keys and tokens of all tenants. */
+  public void invalidateAll() {
+    loadedCredentials.invalidateAll();
+  }
+
+  @VisibleForTesting
+  long loadedCount() {
+    return loadedCredentials.size();
+  }
+
+  private ServiceAccountCredentials loadCredentials(String tenant) throws IOException {
+    ServiceAccountCredentials credentials;
+    InputStream stream = keySource.openKey(tenant);
+    try {
+      credentials = ServiceAccountCredentials.fromStream(stream, transportFactory);
+    } finally {
+      stream.close();
+    }
+    return scopes.isEmpty()
+        ? credentials
+        : (ServiceAccountCredentials) credentials.createScoped(scopes);
+  }
+
+  /** Key files of a directory, named after their tenant with a {@code .json} suffix. */
+  private static final class DirectoryKeySource implements KeySource {
+    private final File directory;
+    private final Map<String, File> keyFiles;
+
+    DirectoryKeySource(File directory) throws IOException {
+      File[] files = directory.listFiles();
+      if (files == null) {
+        throw new FileNotFoundException("Key directory not found: " + directory);
+      }
+      ImmutableMap.Builder<String, File> builder = ImmutableMap.builder();
+      for (File file : files) {
+        String name = file.getName();
+        if (file.isFile() && name.endsWith(KEY_FILE_SUFFIX)) {
+          builder.put(name.substring(0, name.length() - KEY_FILE_SUFFIX.length()), file);
+        }
+      }
+      this.directory = directory;
+      this.keyFiles = builder.build();
+    }
+
+    @Override
+    public InputStream openKey(String tenant) throws IOException {
+      File file = keyFiles.get(tenant);
+      if (file == null) {
+        throw new FileNotFoundException(
+            String.format("No key for tenant %s in %s", tenant, directory));
+      }
+      return new FileInputStream(file);
+    }
+
+    Set<String> getTenants() {
+      return keyFiles.keySet();
+    }
+  }
+
+  public static class Builder {
+    private KeySource keySource;
+    private List<String> scopes = ImmutableList.of();
+    private HttpTransportFactory transportFactory = OAuth2Utils.HTTP_TRANSPORT_FACTORY;
+    private long maximumLoadedKeys = DEFAULT_MAXIMUM_LOADED_KEYS;
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    protected Builder() {}
+
+    /**
+     * Set the source of the key files. Either this or {@link #setKeyDirectory(File)} is required.
+     *
+     * @param keySource the source of the key files
+     * @return the builder
+     */
+    public Builder setKeySource(KeySource keySource) {
+      this.keySource = Preconditions.checkNotNull(keySource);
+      return this;
+    }
+
+    /**
+     * Set the directory of the key files. Each {@code <tenant>.json} file in it holds the key of
+     * that tenant. The directory is listed once, the files are only read on first use.
+     *
+     * @param directory the directory of the key files
+     * @return the builder
+     * @throws IOException if the directory could not be listed
+     */
+    public Builder setKeyDirectory(File directory) throws IOException {
+      this.keySource = new DirectoryKeySource(Preconditions.checkNotNull(directory));
+      return this;
+    }
+
+    public KeySource getKeySource() {
+      return keySource;
+    }
+
+    /**
+     * Set the scopes to request for every tenant.
+     *
+     * @param scopes the scopes
+     * @return the builder
+     */
+    public Builder setScopes(Collection<String> scopes) {
+      this.scopes = ImmutableList.copyOf(scopes);
+      return this;
+    }
+
+    public List<String> getScopes() {
+      return scopes;
+    }
+
+    public Builder setHttpTransportFactory(HttpTransportFactory transportFactory) {
+      this.transportFactory = Preconditions.checkNotNull(transportFactory);
+      return this;
+    }
+
+    public HttpTransportFactory getHttpTransportFactory() {
+      return transportFactory;
+    }
+
+    /**
+     * Set the maximum number of tenants whose parsed key and token are kept. The least recently
+     * used are discarded beyond it. Defaults to 1000.
+     *
+     * @param maximumLoadedKeys the maximum number of loaded keys
+     * @return the builder
+     */
+    public Builder setMaximumLoadedKeys(long maximumLoadedKeys) {
+      Preconditions.checkArgument(maximumLoadedKeys > 0, "maximumLoadedKeys must be positive");
+      this.maximumLoadedKeys = maximumLoadedKeys;
+      return this;
+    }
+
+    public long getMaximumLoadedKeys() {
+      return maximumLoadedKeys;
+    }
+
+    /**
+     * Set how long the parsed key and token of a tenant are kept after they were last used.
+     * Defaults to 1 hour.
+     *
+     * @param idleTimeoutMillis the idle timeout in milliseconds
+     * @return the builder
+     */
+    public Builder setIdleTimeoutMillis(long idleTimeoutMillis) {
+      Preconditions.checkArgument(idleTimeoutMillis > 0, "idleTimeoutMillis must be positive");
+      this.idleTimeoutMillis = idleTimeoutMillis;
+      return this;
+    }
+
+    public long getIdleTimeoutMillis() {
+      return idleTimeoutMillis;
+    }
+
+    public ServiceAccountKeyManager build() {
+      return new ServiceAccountKeyManager(this);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpTransport;
+import com.google.auth.http.HttpTransportFactory;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.io.IOException;
+
+/**
+ * Shares one transport and request factory per {@link HttpTransportFactory}, so that requests for
+ * tokens, signatures and public keys reuse the connections kept alive by the transport, and their
+ * TLS sessions, instead of creating a transport for every request.
+ *
+ * <p>Factories are held weakly and their transports softly, so neither is kept alive by the sharing
+ * alone.
+ */
+final class SharedHttpTransports {
+
+  private static final LoadingCache<HttpTransportFactory, HttpRequestFactory> REQUEST_FACTORIES =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .softValues()
+          .build(
+              new CacheLoader<HttpTransportFactory, HttpRequestFactory>() {
+                @Override
+                public HttpRequestFactory load(HttpTransportFactory transportFactory) {
+                  return transportFactory.create().createRequestFactory();
+                }
+              });
+
+  private SharedHttpTransports() {}
+
+  /** Returns the transport shared by all users of the factory. */
+  static HttpTransport getTransport(HttpTransportFactory transportFactory) {
+    return getRequestFactory(transportFactory).getTransport();
+  }
+
+  /** Returns a request factory for the transport shared by all users of the factory. */
+  static HttpRequestFactory getRequestFactory(HttpTransportFactory transportFactory) {
+    return REQUEST_FACTORIES.getUnchecked(transportFactory);
+  }
+
+  /**
+   * Opens a connection to the host of the URL on the shared transport, so that a request made
+   * shortly after does not wait for the TCP and TLS handshakes. The response is discarded and its
+   * status ignored.
+   *
+   * @throws IOException if the host could not be reached
+   */
+  static void warmUp(HttpTransportFactory transportFactory, GenericUrl url) throws IOException {
+    HttpRequest request = getRequestFactory(transportFactory).buildHeadRequest(url);
+    request.setThrowExceptionOnExecuteError(false);
+    request.setNumberOfRetries(0);
+    // Reading the response to its end returns the connection to the transport for reuse.
+    request.execute().ignore();
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.auth.oauth2.OAuth2Credentials.OAuthValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A process-wide cache of access tokens, shared by credentials for the same identity.
+ *
+ * <p>Applications often create many credentials instances from the same service account key or user
+ * refresh token, for example one per client library, and each of them would obtain its own token.
+ * Once enabled, {@link ServiceAccountCredentials}, {@link UserCredentials}, {@link
+ * ImpersonatedCredentials} and {@link ComputeEngineCredentials} look up the token in this cache
+ * when they need a new one, keyed by their {@link com.google.auth.IdentityKey}. Equivalent
+ * instances then share one token, and a single one of them requests it from the token server at a
+ * time.
+ *
+ * <p>An instance only reuses a token it does not hold yet, so an explicit {@link
+ * OAuth2Credentials#refresh()} still obtains a new token, which then replaces the shared one. The
+ * cache holds a bounded number of identities, and discards identities not used for an hour.
+ *
+ * <p>With {@link #enable(long, boolean)} service account and impersonated credentials may also
+ * reuse a cached token of the same principal that was requested for a superset of their scopes, for
+ * example one with both the {@code storage.read} and {@code pubsub} scopes for credentials needing
+ * only {@code storage.read}. This trades least privilege of each token for fewer token requests, so
+ * it is off by default.
+ *
+ * <pre><code>
+ * SharedTokenCache.enable(1000);
+ * </code></pre>
+ */
+public final class SharedTokenCache {
+
+  static final long DEFAULT_MAXIMUM_SIZE = 1000;
+
+  private static volatile SharedTokenCache enabled;
+
+  private final Cache<Object, Entry> entries;
+  private final boolean reuseScopeSupersets;
+  private final CacheAccessCounter accessCounter;
+
+  private SharedTokenCache(long maximumSize, boolean reuseScopeSupersets, String cacheName) {
+    this.reuseScopeSupersets = reuseScopeSupersets;
+    this.accessCounter = new CacheAccessCounter(cacheName);
+    this.entries =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+  }
+
+  /** Enables the shared token cache with the default maximum number of identities. */
+  public static void enable() {
+    enable(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * Enables the shared token cache, replacing any cache enabled before.
+   *
+   * @param maximumSize the maximum number of identities to cache tokens for
+   */
+  public static void enable(long maximumSize) {
+    enable(maximumSize, false);
+  }
+
+  /**
+   * Enables the shared token cache, replacing any cache enabled before.
+   *
+   * @param maximumSize the maximum number of identities to cache tokens for
+   * @param reuseScopeSupersets whether credentials may use a token of the same principal requested
+   *     for a superset of their scopes
+   */
+  public static void enable(long maximumSize, boolean reuseScopeSupersets) {
+    Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive");
+    enabled =
+        new SharedTokenCache(maximumSize, reuseScopeSupersets, MetricsRecorder.SHARED_TOKEN_CACHE);
+  }
+
+  /** Disables the shared token cache and discards the cached tokens. */
+  public static void disable() {
+    enabled = null;
+  }
+
+  /**
+   * Returns a cache private to the scoped copies of one credentials, see {@link
+   * GoogleCredentials#shareVariantTokens}.
+   */
+  static SharedTokenCache newScopedVariantCache(long maximumSize) {
+    return new SharedTokenCache(maximumSize, false, MetricsRecorder.SCOPED_VARIANT_TOKENS);
+  }
+
+  /** Returns the enabled cache, or null if the shared token cache is disabled. */
+  static SharedTokenCache getEnabled() {
+    return enabled;
+  }
+
+  @VisibleForTesting
+  long size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the shared token of the identity if it differs from the token being replaced and is not
+   * about to expire, or else such a token of the same principal with a superset of the scopes if
+   * enabled. Otherwise refreshes the credentials and shares the new token. Concurrent callers for
+   * the same identity wait for a single refresh.
+   *
+   * @param key the identity of the credentials
+   * @param credentials the credentials needing a token
+   * @param replacedToken the token the credentials currently hold, or null
+   */
+  AccessToken getAccessToken(
+      Object key, final OAuth2Credentials credentials, AccessToken replacedToken)
+      throws IOException {
+    Entry entry;
+    try {
+      entry =
+          entries.get(
+              key,
+              new Callable<Entry>() {
+                @Override
+                public Entry call() {
+                  return new Entry(
+                      credentials.getTokenPrincipalKey(),
+                      ImmutableSet.copyOf(credentials.getTokenScopes()));
+                }
+              });
+    } catch (ExecutionException e) {
+      // Creating an entry cannot fail.
+      throw new IllegalStateException(e.getCause());
+    }
+    MetricsRecorder.lock(entry.lock, credentials);
+    try {
+      OAuthValue value = entry.value;
+      if (!isReusable(value, replacedToken, credentials) && reuseScopeSupersets) {
+        value = findScopeSupersetValue(entry, replacedToken, credentials);
+      }
+      boolean hit = isReusable(value, replacedToken, credentials);
+      accessCounter.record(hit);
+      if (!hit) {
+        value =
+            new OAuthValue(
+                credentials.refreshAccessToken(), credentials.clock, credentials.ticker, 0);
+      }
+      entry.value = value;
+      return value.getAccessToken();
+    } finally {
+      entry.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns a reusable token cached for another identity of the same principal with all scopes of
+   * the entry, or null. Only consulted on a miss, so scanning the bounded cache is acceptable.
+   */
+  private OAuthValue findScopeSupersetValue(
+      Entry entry, AccessToken replacedToken, OAuth2Credentials credentials) {
+    if (entry.principalKey == null || entry.scopes.isEmpty()) {
+      return null;
+    }
+    for (Entry other : entries.asMap().values()) {
+      OAuthValue value = other.value;
+      if (other != entry
+          && entry.principalKey.equals(other.principalKey)
+          && other.scopes.containsAll(entry.scopes)
+          && isReusable(value, replacedToken, credentials)) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isReusable(
+      OAuthValue value, AccessToken replacedToken, OAuth2Credentials credentials) {
+    // The margin is that of the requesting credentials, which may refresh well before the others.
+    return value != null
+        && !value.getAccessToken().equals(replacedToken)
+        && credentials.isUsable(value);
+  }
+
+  private static final class Entry {
+    final ReentrantLock lock = new ReentrantLock();
+    final Object principalKey;
+    final Set<String> scopes;
+    // Written under lock, read without it by lookups for other identities of the principal.
+    volatile OAuthValue value;
+
+    Entry(Object principalKey, Set<String> scopes) {
+      this.principalKey = principalKey;
+      this.scopes = scopes;
+    }
+  }
+}
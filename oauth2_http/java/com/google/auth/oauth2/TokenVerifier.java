@@ -34,7 +34,6 @@ package com.google.auth.oauth2;
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpResponse;
-import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.GenericJson;
 import com.google.api.client.json.webtoken.JsonWebSignature;
 import com.google.api.client.util.Base64;
@@ -43,6 +42,7 @@ import com.google.api.client.util.Key;
 import com.google.auth.http.HttpTransportFactory;
 import com.google.common.annotations.Beta;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -92,6 +92,8 @@ public class TokenVerifier {
   private final PublicKey publicKey;
   private final Clock clock;
   private final LoadingCache<String, Map<String, PublicKey>> publicKeyCache;
+  private final CacheAccessCounter publicKeyCacheAccessCounter =
+      new CacheAccessCounter(MetricsRecorder.TOKEN_VERIFIER_PUBLIC_KEY_CACHE);
 
   private TokenVerifier(Builder builder) {
     this.audience = builder.audience;
@@ -105,6 +107,14 @@ public class TokenVerifier {
             .build(new PublicKeyLoader(builder.httpTransportFactory));
   }
 
+  Cache<String, Map<String, PublicKey>> getPublicKeyCache() {
+    return publicKeyCache;
+  }
+
+  CacheAccessCounter getPublicKeyCacheAccessCounter() {
+    return publicKeyCacheAccessCounter;
+  }
+
   public static Builder newBuilder() {
     return new Builder()
         .setClock(Clock.SYSTEM)
@@ -119,6 +129,17 @@ public class TokenVerifier {
    * @throws VerificationException thrown if any verification fails
    */
   public JsonWebSignature verify(String token) throws VerificationException {
+    AuthEvent event = AuthEvent.begin(AuthEvent.Operation.VERIFY, certificatesLocation);
+    JsonWebSignature jsonWebSignature = null;
+    try {
+      jsonWebSignature = verifyToken(token);
+      return jsonWebSignature;
+    } finally {
+      event.end(jsonWebSignature != null);
+    }
+  }
+
+  private JsonWebSignature verifyToken(String token) throws VerificationException {
     JsonWebSignature jsonWebSignature;
     try {
       jsonWebSignature = JsonWebSignature.parse(OAuth2Utils.JSON_FACTORY, token);
@@ -151,8 +172,12 @@ public class TokenVerifier {
     if (publicKeyToUse == null) {
       try {
         String certificateLocation = getCertificateLocation(jsonWebSignature);
-        publicKeyToUse =
-            publicKeyCache.get(certificateLocation).get(jsonWebSignature.getHeader().getKeyId());
+        Map<String, PublicKey> publicKeys = publicKeyCache.getIfPresent(certificateLocation);
+        publicKeyCacheAccessCounter.record(publicKeys != null);
+        if (publicKeys == null) {
+          publicKeys = publicKeyCache.get(certificateLocation);
+        }
+        publicKeyToUse = publicKeys.get(jsonWebSignature.getHeader().getKeyId());
       } catch (ExecutionException | UncheckedExecutionException e) {
         throw new VerificationException("Error fetching PublicKey from certificate location", e);
       }
@@ -314,14 +339,12 @@ public class TokenVerifier {
 
     @Override
     public Map<String, PublicKey> load(String certificateUrl) throws Exception {
-      HttpTransport httpTransport = httpTransportFactory.create();
       JsonWebKeySet jwks;
       try {
         HttpRequest request =
-            httpTransport
-                .createRequestFactory()
+            SharedHttpTransports.getRequestFactory(httpTransportFactory)
                 .buildGetRequest(new GenericUrl(certificateUrl))
-                .setParser(OAuth2Utils.JSON_FACTORY.createJsonObjectParser());
+                .setParser(OAuth2Utils.JSON_PARSER);
         HttpResponse response = request.execute();
         jwks = response.parseAs(JsonWebKeySet.class);
       } catch (IOException io) {
@@ -45,6 +45,7 @@ import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.util.GenericData;
 import com.google.api.client.util.Preconditions;
+import com.google.auth.IdentityKey;
 import com.google.auth.http.HttpTransportFactory;
 import com.google.common.base.MoreObjects;
 import java.io.ByteArrayInputStream;
@@ -183,6 +184,11 @@ public class UserCredentials extends GoogleCredentials implements QuotaProjectId
             fileType, USER_FILE_TYPE));
   }
 
+  @Override
+  void warmUpConnection() throws IOException {
+    SharedHttpTransports.warmUp(transportFactory, new GenericUrl(tokenServerUri));
+  }
+
   /** Refreshes the OAuth2 access token by getting a new access token from the refresh token */
   @Override
   public AccessToken refreshAccessToken() throws IOException {
@@ -197,9 +203,10 @@ public class UserCredentials extends GoogleCredentials implements QuotaProjectId
     tokenRequest.set("grant_type", GRANT_TYPE);
     UrlEncodedContent content = new UrlEncodedContent(tokenRequest);
 
-    HttpRequestFactory requestFactory = transportFactory.create().createRequestFactory();
+    HttpRequestFactory requestFactory = SharedHttpTransports.getRequestFactory(transportFactory);
     HttpRequest request = requestFactory.buildPostRequest(new GenericUrl(tokenServerUri), content);
-    request.setParser(new JsonObjectParser(JSON_FACTORY));
+    request.setParser(OAuth2Utils.JSON_PARSER);
+    AuthTracer.getDefault().injectTraceHeaders(request);
     HttpResponse response = request.execute();
     GenericData responseData = response.parseAs(GenericData.class);
     String accessToken =
@@ -276,10 +283,20 @@ public class UserCredentials extends GoogleCredentials implements QuotaProjectId
     OAuth2Utils.writeInputStreamToFile(getUserCredentialsStream(), filePath);
   }
 
+  /** Returns a key identifying the client, refresh token and token server. */
+  @Override
+  public IdentityKey getIdentityKey() {
+    return IdentityKey.of(getClass().getName(), clientId, refreshToken, tokenServerUri);
+  }
+
+  @Override
+  Object getTokenCacheKey() {
+    return getIdentityKey();
+  }
+
   @Override
-  public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
-    Map<String, List<String>> requestMetadata = super.getRequestMetadata(uri);
-    return addQuotaProjectIdToRequestMetadata(quotaProjectId, requestMetadata);
+  protected Map<String, List<String>> getAdditionalHeaders() {
+    return getQuotaProjectIdHeaders(quotaProjectId);
   }
 
   @Override
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to virtual threads when running on Java 21 or later.
+ *
+ * <p>The library is compiled for Java 7, so {@code Thread.startVirtualThread} is looked up
+ * reflectively once. Java 19 and 20 have the method as a preview API that fails unless preview
+ * features are enabled, so virtual threads are only used from Java 21 on, and only after starting
+ * one succeeded. Otherwise {@link #isSupported()} returns false.
+ */
+final class VirtualThreads {
+
+  private static final Logger LOGGER = Logger.getLogger(VirtualThreads.class.getName());
+  private static final int MINIMUM_FEATURE_VERSION = 21;
+
+  private static final Method START_VIRTUAL_THREAD = findStartVirtualThread();
+
+  private VirtualThreads() {}
+
+  /** Returns whether the runtime supports virtual threads. */
+  static boolean isSupported() {
+    return START_VIRTUAL_THREAD != null;
+  }
+
+  /**
+   * Returns an executor that runs each task on a new virtual thread, or on the fallback executor if
+   * a virtual thread cannot be started.
+   *
+   * @throws UnsupportedOperationException if the runtime does not support virtual threads
+   */
+  static Executor executor(Executor fallback) {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later.");
+    }
+    return newExecutor(START_VIRTUAL_THREAD, fallback);
+  }
+
+  @VisibleForTesting
+  static Executor newExecutor(final Method startVirtualThread, final Executor fallback) {
+    return new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        try {
+          startVirtualThread.invoke(null, command);
+        } catch (Exception e) {
+          LOGGER.log(
+              Level.FINE, "Unable to start a virtual thread, using the fallback executor", e);
+          fallback.execute(command);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "VirtualThreadExecutor{fallback=" + fallback + "}";
+      }
+    };
+  }
+
+  private static Method findStartVirtualThread() {
+    try {
+      Object version = Runtime.class.getMethod("version").invoke(null);
+      int feature = (Integer) version.getClass().getMethod("feature").invoke(version);
+      if (feature < MINIMUM_FEATURE_VERSION) {
+        return null;
+      }
+      Method startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+      // Fails if the runtime does not allow virtual threads after all.
+      Thread thread =
+          (Thread)
+              startVirtualThread.invoke(
+                  null,
+                  new Runnable() {
+                    @Override
+                    public void run() {}
+                  });
+      thread.join();
+      return startVirtualThread;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (Exception | LinkageError e) {
+      // Runtime.version() and Runtime.Version.feature() are missing before Java 9 and 10.
+      return null;
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Marks the duration and outcome of an authentication operation for profilers.
+ *
+ * <p>This is the Java 11 version of the class, packaged in the multi-release JAR. It commits a Java
+ * Flight Recorder event per operation with its duration, detail and outcome. While a recording does
+ * not enable the event type, {@link #begin} returns a shared no-op instance.
+ */
+class AuthEvent {
+
+  /** The instrumented operations. */
+  enum Operation {
+    /** A refresh of the access token of {@link OAuth2Credentials}. */
+    REFRESH,
+    /** The signing of a token request assertion by {@link ServiceAccountCredentials}. */
+    CREATE_ASSERTION,
+    /** The signing of bytes by {@link ServiceAccountCredentials#sign(byte[])}. */
+    SIGN,
+    /** The verification of a token by {@link TokenVerifier}. */
+    VERIFY,
+    /** One step of the Application Default Credentials discovery. */
+    DEFAULT_CREDENTIALS_DISCOVERY,
+    /** A ping of the metadata server to detect Google Compute Engine. */
+    COMPUTE_ENGINE_PING
+  }
+
+  private static final AuthEvent NOOP = new AuthEvent(null);
+
+  // Checked before allocating an event, since recordings rarely enable them.
+  private static final EventType[] EVENT_TYPES = new EventType[Operation.values().length];
+
+  static {
+    for (Operation operation : Operation.values()) {
+      EVENT_TYPES[operation.ordinal()] = EventType.getEventType(newEvent(operation).getClass());
+    }
+  }
+
+  private final OperationEvent event;
+
+  private AuthEvent(OperationEvent event) {
+    this.event = event;
+  }
+
+  /**
+   * Starts timing an operation.
+   *
+   * @param operation the operation
+   * @param detail the credential type, discovery step or endpoint the operation applies to, or
+   *     null
+   * @return the event to end once the operation completes
+   */
+  static AuthEvent begin(Operation operation, String detail) {
+    if (!EVENT_TYPES[operation.ordinal()].isEnabled()) {
+      return NOOP;
+    }
+    OperationEvent event = newEvent(operation);
+    event.detail = detail;
+    event.begin();
+    return new AuthEvent(event);
+  }
+
+  /**
+   * Ends the operation, recording the event if enabled.
+   *
+   * @param success whether the operation succeeded, or for discovery steps whether they found
+   *     credentials
+   */
+  void end(boolean success) {
+    if (event != null) {
+      event.success = success;
+      event.commit();
+    }
+  }
+
+  private static OperationEvent newEvent(Operation operation) {
+    switch (operation) {
+      case REFRESH:
+        return new RefreshEvent();
+      case CREATE_ASSERTION:
+        return new CreateAssertionEvent();
+      case SIGN:
+        return new SignEvent();
+      case VERIFY:
+        return new VerifyEvent();
+      case DEFAULT_CREDENTIALS_DISCOVERY:
+        return new DefaultCredentialsDiscoveryEvent();
+      case COMPUTE_ENGINE_PING:
+        return new ComputeEnginePingEvent();
+      default:
+        throw new AssertionError(operation);
+    }
+  }
+
+  @Category("Google Auth Library")
+  abstract static class OperationEvent extends Event {
+
+    @Label("Detail")
+    @Description("Credential type, discovery step or endpoint of the operation")
+    String detail;
+
+    @Label("Success")
+    boolean success;
+  }
+
+  @Name("com.google.auth.Refresh")
+  @Label("Access Token Refresh")
+  static final class RefreshEvent extends OperationEvent {}
+
+  @Name("com.google.auth.CreateAssertion")
+  @Label("Service Account Assertion")
+  static final class CreateAssertionEvent extends OperationEvent {}
+
+  @Name("com.google.auth.Sign")
+  @Label("Service Account Signing")
+  static final class SignEvent extends OperationEvent {}
+
+  @Name("com.google.auth.Verify")
+  @Label("Token Verification")
+  static final class VerifyEvent extends OperationEvent {}
+
+  @Name("com.google.auth.DefaultCredentialsDiscovery")
+  @Label("Default Credentials Discovery Step")
+  static final class DefaultCredentialsDiscoveryEvent extends OperationEvent {}
+
+  @Name("com.google.auth.ComputeEnginePing")
+  @Label("Compute Engine Metadata Ping")
+  static final class ComputeEnginePingEvent extends OperationEvent {}
+}
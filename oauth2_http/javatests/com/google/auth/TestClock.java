@@ -32,9 +32,14 @@
 package com.google.auth;
 
 import com.google.api.client.util.Clock;
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
 
-/** A mock clock for testing time-sensitive operations. */
-public class TestClock implements Clock {
+/**
+ * A mock clock for testing time-sensitive operations. It can also stand in for the monotonic
+ * ticker, so that tests can move wall-clock time and elapsed time independently.
+ */
+public class TestClock extends Ticker implements Clock {
 
   long currentTime;
 
@@ -43,6 +48,11 @@ public class TestClock implements Clock {
     return currentTime;
   }
 
+  @Override
+  public long read() {
+    return TimeUnit.MILLISECONDS.toNanos(currentTime);
+  }
+
   public void addToCurrentTime(long milliseconds) {
     currentTime = currentTime + milliseconds;
   }
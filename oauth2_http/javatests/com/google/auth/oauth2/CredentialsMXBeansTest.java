@@ -0,0 +1,170 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.auth.TestClock;
+import com.google.auth.oauth2.GoogleCredentialsTest.MockTokenServerTransportFactory;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test case for {@link CredentialsMXBeans}. */
+@RunWith(JUnit4.class)
+public class CredentialsMXBeansTest {
+
+  private static final String CLIENT_SECRET = "jakuaL9YyieakhECKL2SwZcu";
+  private static final String CLIENT_ID = "ya29.1.AADtN_UtlxN3PuGAxrN2XQnZTVRvDyVWnYq4I6dws";
+  private static final String REFRESH_TOKEN = "1/Tl6awhpFjkMkSJoj1xsli0H2eL5YsMgU_NKPY2TyGWY";
+  private static final String ACCESS_TOKEN = "aashpFjkMkSJoj1xsli0H2eL5YsMgU_NKPY2TyGWY";
+  private static final URI CALL_URI = URI.create("http://googleapis.com/testapi/v1/foo");
+
+  private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+  @Test
+  public void register_oauth2Credentials_exposesRefreshState() throws Exception {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    UserCredentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    TestClock clock = new TestClock();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+
+    ObjectName name = CredentialsMXBeans.register(credentials);
+    try {
+      assertEquals("OAuth2Credentials", name.getKeyProperty("type"));
+      assertEquals(UserCredentials.class.getName(), server.getAttribute(name, "CredentialsType"));
+      assertEquals(-1L, server.getAttribute(name, "TimeToExpiryMillis"));
+      assertEquals(-1L, server.getAttribute(name, "LastRefreshDurationMillis"));
+
+      server.invoke(name, "refresh", new Object[0], new String[0]);
+      assertEquals(1, transportFactory.transport.buildRequestCount);
+      assertEquals(3600 * 1000L, server.getAttribute(name, "TimeToExpiryMillis"));
+      assertTrue((Long) server.getAttribute(name, "LastRefreshDurationMillis") >= 0);
+      assertNull(server.getAttribute(name, "LastRefreshError"));
+
+      transportFactory.transport.setError(new IOException("Token server unavailable"));
+      try {
+        credentials.refresh();
+      } catch (IOException expected) {
+        // Expected
+      }
+      assertTrue(
+          ((String) server.getAttribute(name, "LastRefreshError"))
+              .contains("Token server unavailable"));
+    } finally {
+      CredentialsMXBeans.unregister(name);
+    }
+    assertFalse(server.isRegistered(name));
+  }
+
+  @Test
+  public void register_jwtAccessCredentials_exposesCache() throws Exception {
+    KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+    keyPairGenerator.initialize(1024);
+    PrivateKey privateKey = keyPairGenerator.generateKeyPair().getPrivate();
+    ServiceAccountJwtAccessCredentials credentials =
+        ServiceAccountJwtAccessCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientEmail("test@example.com")
+            .setPrivateKey(privateKey)
+            .build();
+
+    ObjectName name = CredentialsMXBeans.register(credentials);
+    try {
+      assertEquals(MetricsRecorder.JWT_ACCESS_CACHE, server.getAttribute(name, "CacheName"));
+      assertTrue(Double.isNaN((Double) server.getAttribute(name, "HitRate")));
+
+      credentials.getRequestMetadata(CALL_URI);
+      credentials.getRequestMetadata(CALL_URI);
+      assertEquals(1L, server.getAttribute(name, "Size"));
+      assertEquals(1L, server.getAttribute(name, "HitCount"));
+      assertEquals(1L, server.getAttribute(name, "MissCount"));
+      assertEquals(0.5, (Double) server.getAttribute(name, "HitRate"), 0);
+
+      server.invoke(name, "invalidateAll", new Object[0], new String[0]);
+      assertEquals(0L, server.getAttribute(name, "Size"));
+    } finally {
+      CredentialsMXBeans.unregister(name);
+    }
+  }
+
+  @Test
+  public void register_tokenVerifier_exposesPublicKeyCache() throws JMException {
+    ObjectName name = CredentialsMXBeans.register(TokenVerifier.newBuilder().build());
+    try {
+      assertEquals(
+          MetricsRecorder.TOKEN_VERIFIER_PUBLIC_KEY_CACHE, server.getAttribute(name, "CacheName"));
+      assertEquals(0L, server.getAttribute(name, "Size"));
+      assertEquals(0L, server.getAttribute(name, "MissCount"));
+    } finally {
+      CredentialsMXBeans.unregister(name);
+    }
+    // Unregistering twice is harmless.
+    CredentialsMXBeans.unregister(name);
+  }
+
+  @Test
+  public void register_unregistersMBeansOfCollectedSubjects() throws Exception {
+    ObjectName name =
+        CredentialsMXBeans.register(OAuth2Credentials.create(new AccessToken(ACCESS_TOKEN, null)));
+    TokenVerifier verifier = TokenVerifier.newBuilder().build();
+
+    // Once the credentials are collected, registering another MBean unregisters theirs without it
+    // being accessed.
+    for (int i = 0; i < 100 && server.isRegistered(name); i++) {
+      System.gc();
+      Thread.sleep(10);
+      CredentialsMXBeans.unregister(CredentialsMXBeans.register(verifier));
+    }
+    assertFalse(server.isRegistered(name));
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.auth.Credentials;
+import com.google.auth.TestClock;
+import com.google.auth.TestUtils;
+import com.google.auth.oauth2.GoogleCredentialsTest.MockTokenServerTransportFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DelegatedTokenPoolTest {
+
+  private static final String ACCESS_TOKEN = "1/MkSJoj1xsli0AccessToken_NKPY2";
+  private static final String NEW_ACCESS_TOKEN = "2/MkSJoj1xsli0AccessToken_NKPY2";
+  private static final String USER_1 = "user1@example.com";
+  private static final String USER_2 = "user2@example.com";
+  private static final URI CALL_URI = URI.create("http://googleapis.com/testapi/v1/foo");
+
+  @Test
+  public void getAccessToken_reusesTokenOfSubject() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    DelegatedTokenPool pool = newPool(transportFactory, 10);
+
+    AccessToken token = pool.getAccessToken(USER_1);
+
+    assertEquals(ACCESS_TOKEN, token.getTokenValue());
+    assertSame(token, pool.getAccessToken(USER_1));
+    assertEquals(1, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void getAccessToken_subjectsRefreshSeparately() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    DelegatedTokenPool pool = newPool(transportFactory, 10);
+
+    pool.getAccessToken(USER_1);
+    pool.getAccessToken(USER_2);
+
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+    assertEquals(2, pool.size());
+  }
+
+  @Test
+  public void getAccessToken_boundsNumberOfSubjects() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    DelegatedTokenPool pool = newPool(transportFactory, 2);
+
+    for (int i = 0; i < 10; i++) {
+      pool.getAccessToken("user" + i + "@example.com");
+    }
+
+    assertTrue(pool.size() <= 2);
+  }
+
+  @Test
+  public void refresh_replacesTokenOfSubject() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    DelegatedTokenPool pool = newPool(transportFactory, 10);
+    pool.getAccessToken(USER_1);
+    transportFactory.transport.addServiceAccount(
+        ServiceAccountCredentialsTest.CLIENT_EMAIL, NEW_ACCESS_TOKEN);
+
+    pool.refresh(USER_1);
+
+    assertEquals(NEW_ACCESS_TOKEN, pool.getAccessToken(USER_1).getTokenValue());
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void getAccessToken_wallClockSteps_expiryFollowsTicker() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    ServiceAccountCredentials credentials = newCredentials(transportFactory);
+    TestClock wallClock = new TestClock();
+    TestClock ticker = new TestClock();
+    credentials.clock = wallClock;
+    credentials.ticker = ticker;
+    DelegatedTokenPool pool =
+        DelegatedTokenPool.newBuilder().setServiceAccountCredentials(credentials).build();
+    pool.getAccessToken(USER_1);
+    transportFactory.transport.addServiceAccount(
+        ServiceAccountCredentialsTest.CLIENT_EMAIL, NEW_ACCESS_TOKEN);
+
+    // A step of the wall clock past the expiry does not expire the token.
+    wallClock.addToCurrentTime(TimeUnit.HOURS.toMillis(2));
+    assertEquals(ACCESS_TOKEN, pool.getAccessToken(USER_1).getTokenValue());
+
+    // Nor does a step back keep using the token once its lifetime has elapsed.
+    wallClock.setCurrentTime(-TimeUnit.HOURS.toMillis(2));
+    ticker.addToCurrentTime(TimeUnit.HOURS.toMillis(1));
+    assertEquals(NEW_ACCESS_TOKEN, pool.getAccessToken(USER_1).getTokenValue());
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void getAccessToken_usesRefreshMarginOfCredentials() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    ServiceAccountCredentials credentials = newCredentials(transportFactory);
+    TestClock clock = new TestClock();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    credentials.enableAdaptiveMargin(
+        AdaptiveMarginOptions.newBuilder()
+            .setMinMarginMillis(TimeUnit.MINUTES.toMillis(10))
+            .setMaxMarginMillis(TimeUnit.MINUTES.toMillis(10))
+            .build());
+    DelegatedTokenPool pool =
+        DelegatedTokenPool.newBuilder().setServiceAccountCredentials(credentials).build();
+    pool.getAccessToken(USER_1);
+    transportFactory.transport.addServiceAccount(
+        ServiceAccountCredentialsTest.CLIENT_EMAIL, NEW_ACCESS_TOKEN);
+
+    // Eight minutes left are within the ten minute margin of the service account.
+    clock.addToCurrentTime(TimeUnit.MINUTES.toMillis(52));
+    assertEquals(NEW_ACCESS_TOKEN, pool.getAccessToken(USER_1).getTokenValue());
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void invalidate_discardsTokenOfSubject() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    DelegatedTokenPool pool = newPool(transportFactory, 10);
+    AccessToken token = pool.getAccessToken(USER_1);
+
+    pool.invalidate(USER_1);
+
+    assertEquals(0, pool.size());
+    assertNotSame(token, pool.getAccessToken(USER_1));
+  }
+
+  @Test
+  public void getCredentials_sharesTokenOfPool() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    DelegatedTokenPool pool = newPool(transportFactory, 10);
+
+    Credentials credentials = pool.getCredentials(USER_1);
+
+    TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), ACCESS_TOKEN);
+    TestUtils.assertContainsBearerToken(
+        pool.getCredentials(USER_1).getRequestMetadata(CALL_URI), ACCESS_TOKEN);
+    assertEquals(1, transportFactory.transport.buildRequestCount);
+    assertEquals(pool.getCredentials(USER_1).getIdentityKey(), credentials.getIdentityKey());
+    assertFalse(pool.getCredentials(USER_2).getIdentityKey().equals(credentials.getIdentityKey()));
+  }
+
+  @Test
+  public void getCredentials_asyncUsesCachedToken() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    DelegatedTokenPool pool = newPool(transportFactory, 10);
+    pool.getAccessToken(USER_1);
+    MockRequestMetadataCallback callback = new MockRequestMetadataCallback();
+
+    pool.getCredentials(USER_1).getRequestMetadata(CALL_URI, new MockExecutor(), callback);
+
+    TestUtils.assertContainsBearerToken(callback.metadata, ACCESS_TOKEN);
+    assertEquals(1, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void getCredentials_cannotBeSerialized() throws IOException {
+    DelegatedTokenPool pool =
+        newPool(ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN), 10);
+    ObjectOutputStream output = new ObjectOutputStream(new ByteArrayOutputStream());
+    try {
+      output.writeObject(pool.getCredentials(USER_1));
+      fail("Should not be able to serialize the credentials of a subject.");
+    } catch (NotSerializableException expected) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void build_rejectsDelegatedCredentials() throws IOException {
+    ServiceAccountCredentials credentials =
+        (ServiceAccountCredentials)
+            newCredentials(ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN))
+                .createDelegated(USER_1);
+    try {
+      DelegatedTokenPool.newBuilder().setServiceAccountCredentials(credentials).build();
+      fail("Should not be able to pool credentials that already delegate.");
+    } catch (IllegalArgumentException expected) {
+      // Expected
+    }
+  }
+
+  private static ServiceAccountCredentials newCredentials(
+      MockTokenServerTransportFactory transportFactory) throws IOException {
+    return ServiceAccountCredentialsTest.createDefaultBuilder()
+        .setScopes(Collections.singletonList("scope"))
+        .setHttpTransportFactory(transportFactory)
+        .build();
+  }
+
+  private static DelegatedTokenPool newPool(
+      MockTokenServerTransportFactory transportFactory, long maximumSubjects) throws IOException {
+    return DelegatedTokenPool.newBuilder()
+        .setServiceAccountCredentials(newCredentials(transportFactory))
+        .setMaximumSubjects(maximumSubjects)
+        .build();
+  }
+}
@@ -33,7 +33,10 @@ package com.google.auth.oauth2;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -51,6 +54,7 @@ import com.google.auth.ServiceAccountSigner.SigningException;
 import com.google.auth.http.HttpTransportFactory;
 import com.google.auth.oauth2.GoogleCredentialsTest.MockTokenServerTransportFactory;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
@@ -254,6 +258,72 @@ public class ImpersonatedCredentialsTest extends BaseSerializationTest {
     assertEquals(ACCESS_TOKEN, targetCredentials.refreshAccessToken().getTokenValue());
   }
 
+  @Test
+  public void getIdentityKey_includesSourceAndTarget() throws IOException {
+    GoogleCredentials sourceCredentials = getSourceCredentials();
+    MockIAMCredentialsServiceTransportFactory mtransportFactory =
+        new MockIAMCredentialsServiceTransportFactory();
+    ImpersonatedCredentials targetCredentials =
+        ImpersonatedCredentials.create(
+            sourceCredentials,
+            IMPERSONATED_CLIENT_EMAIL,
+            null,
+            SCOPES,
+            VALID_LIFETIME,
+            mtransportFactory);
+
+    assertEquals(
+        targetCredentials.getIdentityKey(),
+        ImpersonatedCredentials.create(
+                sourceCredentials,
+                IMPERSONATED_CLIENT_EMAIL,
+                null,
+                SCOPES,
+                VALID_LIFETIME,
+                mtransportFactory)
+            .getIdentityKey());
+    assertNotEquals(
+        targetCredentials.getIdentityKey(),
+        ImpersonatedCredentials.create(
+                sourceCredentials,
+                "other@example.com",
+                null,
+                SCOPES,
+                VALID_LIFETIME,
+                mtransportFactory)
+            .getIdentityKey());
+  }
+
+  @Test
+  public void createScoped_sharesInstanceForEqualScopes() throws IOException {
+    ImpersonatedCredentials targetCredentials =
+        ImpersonatedCredentials.create(
+            getSourceCredentials(),
+            IMPERSONATED_CLIENT_EMAIL,
+            null,
+            SCOPES,
+            VALID_LIFETIME,
+            new MockIAMCredentialsServiceTransportFactory());
+
+    ImpersonatedCredentials scopedCredentials =
+        (ImpersonatedCredentials) targetCredentials.createScoped("scope1", "scope2");
+
+    assertNotSame(targetCredentials, scopedCredentials);
+    assertEquals(
+        ImmutableSet.of("scope1", "scope2"),
+        ImmutableSet.copyOf(scopedCredentials.getTokenScopes()));
+    assertEquals(targetCredentials.getAccount(), scopedCredentials.getAccount());
+    assertEquals(
+        targetCredentials.getTokenPrincipalKey(), scopedCredentials.getTokenPrincipalKey());
+    GoogleCredentials sameScopes = targetCredentials.createScoped("scope2", "scope1");
+    assertNotSame(scopedCredentials, sameScopes);
+    assertEquals(scopedCredentials.getTokenCacheKey(), sameScopes.getTokenCacheKey());
+    assertFalse(
+        scopedCredentials
+            .getTokenCacheKey()
+            .equals(targetCredentials.createScoped("scope1").getTokenCacheKey()));
+  }
+
   @Test()
   public void refreshAccessToken_delegates_success() throws IOException, IllegalStateException {
 
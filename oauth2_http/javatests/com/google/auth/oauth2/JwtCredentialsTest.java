@@ -35,18 +35,24 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.json.webtoken.JsonWebSignature;
 import com.google.api.client.util.Clock;
+import com.google.auth.TestClock;
 import com.google.auth.http.AuthHttpConstants;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
 import java.security.PrivateKey;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -101,6 +107,46 @@ public class JwtCredentialsTest extends BaseSerializationTest {
     assertSame(deserializedCredentials.getClock(), Clock.SYSTEM);
   }
 
+  @Test
+  public void serialize_readsFormOfEarlierVersions() throws IOException, ClassNotFoundException {
+    // Written by version 0.21 for the claims and key below.
+    InputStream stream =
+        JwtCredentialsTest.class.getClassLoader().getResourceAsStream("jwt_credentials_0.21.ser");
+    JwtCredentials credentials;
+    try (ObjectInputStream input = new ObjectInputStream(stream)) {
+      credentials = (JwtCredentials) input.readObject();
+    }
+
+    JwtClaims claims =
+        JwtClaims.newBuilder()
+            .setAudience("some-audience")
+            .setIssuer("some-issuer")
+            .setSubject("some-subject")
+            .build();
+    JwtCredentials expected =
+        JwtCredentials.newBuilder()
+            .setJwtClaims(claims)
+            .setPrivateKey(getPrivateKey())
+            .setPrivateKeyId(PRIVATE_KEY_ID)
+            .build();
+    assertEquals(expected, credentials);
+    verifyJwtAccess(
+        credentials.getRequestMetadata(),
+        "some-audience",
+        "some-issuer",
+        "some-subject",
+        PRIVATE_KEY_ID);
+    assertEquals(credentials, serializeAndDeserialize(credentials));
+  }
+
+  @Test
+  public void serialize_writesFormOfEarlierVersions() {
+    ObjectStreamClass streamClass = ObjectStreamClass.lookup(JwtCredentials.class);
+
+    assertEquals(287345113251030847L, streamClass.getSerialVersionUID());
+    assertEquals(Object.class, streamClass.getField("lock").getType());
+  }
+
   @Test
   public void builder_requiresPrivateKey() {
     try {
@@ -235,6 +281,41 @@ public class JwtCredentialsTest extends BaseSerializationTest {
         Collections.singletonMap("foo", "bar"));
   }
 
+  @Test
+  public void getRequestMetadataSnapshot_generationChangesWithJwt() throws IOException {
+    JwtClaims claims =
+        JwtClaims.newBuilder()
+            .setAudience("some-audience")
+            .setIssuer("some-issuer")
+            .setSubject("some-subject")
+            .build();
+    TestClock clock = new TestClock();
+    JwtCredentials credentials =
+        JwtCredentials.newBuilder()
+            .setJwtClaims(claims)
+            .setPrivateKey(getPrivateKey())
+            .setPrivateKeyId(PRIVATE_KEY_ID)
+            .setClock(clock)
+            .setTicker(clock)
+            .build();
+
+    RequestMetadataSnapshot snapshot1 = credentials.getRequestMetadataSnapshot(null);
+    verifyJwtAccess(
+        snapshot1.getRequestMetadata(),
+        "some-audience",
+        "some-issuer",
+        "some-subject",
+        PRIVATE_KEY_ID);
+    RequestMetadataSnapshot snapshot2 = credentials.getRequestMetadataSnapshot(null);
+    assertSame(snapshot1, snapshot2);
+    assertSame(snapshot1.getRequestMetadata(), credentials.getRequestMetadata());
+
+    // Once the JWT is about to expire a new one is signed under a new generation.
+    clock.addToCurrentTime(TimeUnit.HOURS.toMillis(1));
+    RequestMetadataSnapshot snapshot3 = credentials.getRequestMetadataSnapshot(null);
+    assertTrue(snapshot3.getGeneration() > snapshot1.getGeneration());
+  }
+
   @Test
   public void privateKeyIdNull() throws IOException {
     JwtClaims claims =
@@ -34,22 +34,41 @@ package com.google.auth.oauth2;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.api.client.http.HttpRequest;
 import com.google.api.client.util.Clock;
+import com.google.auth.Credentials;
+import com.google.auth.RequestMetadataCallback;
+import com.google.auth.RequestMetadataTimeoutException;
 import com.google.auth.TestClock;
 import com.google.auth.TestUtils;
 import com.google.auth.http.AuthHttpConstants;
 import com.google.auth.oauth2.GoogleCredentialsTest.MockTokenServerTransportFactory;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -142,6 +161,96 @@ public class OAuth2CredentialsTest extends BaseSerializationTest {
     assertEquals(2, listener.callCount);
   }
 
+  @Test
+  public void addChangeListener_notifiesAfterReleasingLock() throws IOException {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    final OAuth2Credentials userCredentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    final boolean[] heldLock = new boolean[2];
+    userCredentials.addChangeListener(
+        new OAuth2Credentials.CredentialsChangedListener() {
+          int calls;
+
+          @Override
+          public void onChanged(OAuth2Credentials credentials) {
+            heldLock[calls++] = userCredentials.lock.isHeldByCurrentThread();
+          }
+        });
+
+    userCredentials.getRequestMetadata(CALL_URI);
+    userCredentials.refresh();
+
+    assertFalse(heldLock[0]);
+    assertFalse(heldLock[1]);
+  }
+
+  @Test
+  public void addChangeListener_notifiesOnExecutorInOrder() throws IOException {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    OAuth2Credentials userCredentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    userCredentials.clock = new TestClock();
+    MockExecutor executor = new MockExecutor();
+    userCredentials.setChangeListenerExecutor(executor);
+    TestChangeListener listener = new TestChangeListener();
+    userCredentials.addChangeListener(listener);
+
+    userCredentials.getRequestMetadata(CALL_URI);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+    userCredentials.refresh();
+
+    // The refreshing thread does not wait for the listener.
+    assertEquals(0, listener.callCount);
+    assertEquals(2, executor.numTasks());
+
+    // The first task delivers both events in order, the second finds nothing left to deliver.
+    assertEquals(2, executor.runTasksExhaustively());
+    assertEquals(2, listener.callCount);
+    assertEquals(accessToken2, listener.accessToken.getTokenValue());
+  }
+
+  @Test
+  public void addChangeListener_failureOnExecutor_doesNotFailRefresh() throws IOException {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    OAuth2Credentials userCredentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    MockExecutor executor = new MockExecutor();
+    userCredentials.setChangeListenerExecutor(executor);
+    userCredentials.addChangeListener(
+        new OAuth2Credentials.CredentialsChangedListener() {
+          @Override
+          public void onChanged(OAuth2Credentials credentials) throws IOException {
+            throw new IOException("store failed");
+          }
+        });
+
+    TestUtils.assertContainsBearerToken(userCredentials.getRequestMetadata(CALL_URI), ACCESS_TOKEN);
+    assertEquals(1, executor.runTasksExhaustively());
+  }
+
   @Test
   public void removeChangeListener_unregisters_observer() throws IOException {
     final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
@@ -195,6 +304,7 @@ public class OAuth2CredentialsTest extends BaseSerializationTest {
             .setHttpTransportFactory(transportFactory)
             .build();
     credentials.clock = clock;
+    credentials.ticker = clock;
 
     // Verify getting the first token
     assertEquals(0, transportFactory.transport.buildRequestCount);
@@ -249,6 +359,7 @@ public class OAuth2CredentialsTest extends BaseSerializationTest {
             .setHttpTransportFactory(transportFactory)
             .build();
     credentials.clock = clock;
+    credentials.ticker = clock;
 
     MockExecutor executor = new MockExecutor();
     MockRequestMetadataCallback callback = new MockRequestMetadataCallback();
@@ -318,6 +429,7 @@ public class OAuth2CredentialsTest extends BaseSerializationTest {
             .setHttpTransportFactory(transportFactory)
             .build();
     credentials.clock = clock;
+    credentials.ticker = clock;
 
     MockExecutor executor = new MockExecutor();
     MockRequestMetadataCallback callback = new MockRequestMetadataCallback();
@@ -339,162 +451,1351 @@ public class OAuth2CredentialsTest extends BaseSerializationTest {
   }
 
   @Test
-  public void getRequestMetadata_temporaryToken_hasToken() throws IOException {
-    OAuth2Credentials credentials =
-        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(ACCESS_TOKEN, null)).build();
-
-    // Verify getting the first token
-    Map<String, List<String>> metadata = credentials.getRequestMetadata(CALL_URI);
-    TestUtils.assertContainsBearerToken(metadata, ACCESS_TOKEN);
-  }
-
-  @Test
-  public void refresh_refreshesToken() throws IOException {
+  public void getRequestMetadata_async_coalescesRefresh() throws IOException {
     final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
-    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
     MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
     transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
     transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
-    OAuth2Credentials userCredentials =
+    OAuth2Credentials credentials =
         UserCredentials.newBuilder()
             .setClientId(CLIENT_ID)
             .setClientSecret(CLIENT_SECRET)
             .setRefreshToken(REFRESH_TOKEN)
             .setHttpTransportFactory(transportFactory)
             .build();
-    // Use a fixed clock so tokens don't expire
-    userCredentials.clock = new TestClock();
-
-    // Get a first token
-    Map<String, List<String>> metadata = userCredentials.getRequestMetadata(CALL_URI);
-    TestUtils.assertContainsBearerToken(metadata, accessToken1);
-    assertEquals(1, transportFactory.transport.buildRequestCount--);
+    credentials.clock = new TestClock();
 
-    // Change server to a different token
-    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
-
-    // Confirm token being cached
-    TestUtils.assertContainsBearerToken(metadata, accessToken1);
-    assertEquals(0, transportFactory.transport.buildRequestCount);
+    MockExecutor executor = new MockExecutor();
+    MockRequestMetadataCallback[] callbacks = new MockRequestMetadataCallback[10];
+    for (int i = 0; i < callbacks.length; i++) {
+      callbacks[i] = new MockRequestMetadataCallback();
+      credentials.getRequestMetadata(CALL_URI, executor, callbacks[i]);
+    }
 
-    // Refresh to force getting next token
-    userCredentials.refresh();
-    metadata = userCredentials.getRequestMetadata(CALL_URI);
-    TestUtils.assertContainsBearerToken(metadata, accessToken2);
-    assertEquals(1, transportFactory.transport.buildRequestCount--);
+    // A single task refreshes the token and completes every waiting callback.
+    assertEquals(1, executor.runTasksExhaustively());
+    assertEquals(1, transportFactory.transport.buildRequestCount);
+    for (MockRequestMetadataCallback callback : callbacks) {
+      TestUtils.assertContainsBearerToken(callback.metadata, accessToken1);
+    }
   }
 
   @Test
-  public void refreshIfExpired_refreshesToken() throws IOException {
-    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
-    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+  public void metricsRecorder_recordsRefreshesAndWaiters() throws IOException {
     MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
     transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
-    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
-    OAuth2Credentials userCredentials =
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    OAuth2Credentials credentials =
         UserCredentials.newBuilder()
             .setClientId(CLIENT_ID)
             .setClientSecret(CLIENT_SECRET)
             .setRefreshToken(REFRESH_TOKEN)
             .setHttpTransportFactory(transportFactory)
             .build();
-    // Use a fixed clock so tokens don't expire
-    TestClock mockClock = new TestClock();
-    userCredentials.clock = mockClock;
-
-    // Get a first token
-    Map<String, List<String>> metadata = userCredentials.getRequestMetadata(CALL_URI);
-    TestUtils.assertContainsBearerToken(metadata, accessToken1);
-    assertEquals(1, transportFactory.transport.buildRequestCount--);
+    credentials.clock = new TestClock();
+    RecordingMetricsRecorder recorder = new RecordingMetricsRecorder();
+    MetricsRecorder.setDefault(recorder);
+    try {
+      MockExecutor executor = new MockExecutor();
+      for (int i = 0; i < 3; i++) {
+        credentials.getRequestMetadata(CALL_URI, executor, new MockRequestMetadataCallback());
+      }
+      executor.runTasksExhaustively();
+      assertEquals(1, recorder.successfulRefreshes);
+      assertEquals(ImmutableList.of(3), recorder.refreshWaiters);
 
-    // Change server to a different token
-    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+      transportFactory.transport.setError(new IOException("error"));
+      try {
+        credentials.refresh();
+        fail("Should throw");
+      } catch (IOException expected) {
+        // Expected
+      }
+      assertEquals(1, recorder.successfulRefreshes);
+      assertEquals(1, recorder.failedRefreshes);
+      assertSame(credentials, recorder.lastCredentials);
+    } finally {
+      MetricsRecorder.setDefault(null);
+    }
+  }
 
-    // Confirm token being cached
-    TestUtils.assertContainsBearerToken(metadata, accessToken1);
-    assertEquals(0, transportFactory.transport.buildRequestCount);
+  @Test
+  public void authTracer_spansRefreshAndInjectsHeaders() throws IOException {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    RecordingAuthTracer tracer = new RecordingAuthTracer();
+    AuthTracer.setDefault(tracer);
+    try {
+      credentials.refresh();
+      assertEquals(
+          ImmutableList.of("start google.auth.refresh", "inject google.auth.refresh", "end"),
+          tracer.events);
+      assertEquals("google.auth.refresh", tracer.injectedRequest.getHeaders().get("x-trace"));
 
-    // Should not refresh yet
-    userCredentials.refreshIfExpired();
-    metadata = userCredentials.getRequestMetadata(CALL_URI);
-    TestUtils.assertNotContainsBearerToken(metadata, accessToken2);
+      tracer.events.clear();
+      IOException error = new IOException("error");
+      transportFactory.transport.setError(error);
+      try {
+        credentials.refresh();
+        fail("Should throw");
+      } catch (IOException expected) {
+        assertSame(error, expected);
+      }
+      assertEquals(
+          ImmutableList.of(
+              "start google.auth.refresh", "inject google.auth.refresh", "error error", "end"),
+          tracer.events);
+    } finally {
+      AuthTracer.setDefault(null);
+    }
+  }
 
-    // Jump ahead to expire the token
-    mockClock.addToCurrentTime(3600000);
-    userCredentials.refreshIfExpired();
-    metadata = userCredentials.getRequestMetadata(CALL_URI);
-    TestUtils.assertContainsBearerToken(metadata, accessToken2);
+  @Test
+  public void metricsRecorder_recordsContendedLockWait() throws Exception {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    final OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    RecordingMetricsRecorder recorder = new RecordingMetricsRecorder();
+    MetricsRecorder.setDefault(recorder);
+    try {
+      // An uncontended refresh does not report any wait.
+      credentials.refresh();
+      assertEquals(0, recorder.lockWaits);
 
-    assertEquals(1, transportFactory.transport.buildRequestCount--);
+      Thread refresher =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    credentials.refresh();
+                  } catch (IOException e) {
+                    throw new RuntimeException(e);
+                  }
+                }
+              });
+      credentials.lock.lock();
+      try {
+        refresher.start();
+        while (!credentials.lock.hasQueuedThreads()) {
+          Thread.sleep(1);
+        }
+      } finally {
+        credentials.lock.unlock();
+      }
+      refresher.join();
+      assertEquals(1, recorder.lockWaits);
+    } finally {
+      MetricsRecorder.setDefault(null);
+    }
   }
 
-  @Test(expected = IllegalStateException.class)
-  public void refresh_temporaryToken_throws() throws IOException {
+  @Test
+  public void getRequestMetadata_async_refreshFailureCompletesAllWaiters() {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    IOException error = new IOException("error");
+    transportFactory.transport.setError(error);
     OAuth2Credentials credentials =
-        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(ACCESS_TOKEN, null)).build();
-    credentials.refresh();
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+
+    MockExecutor executor = new MockExecutor();
+    MockRequestMetadataCallback callback1 = new MockRequestMetadataCallback();
+    MockRequestMetadataCallback callback2 = new MockRequestMetadataCallback();
+    credentials.getRequestMetadata(CALL_URI, executor, callback1);
+    credentials.getRequestMetadata(CALL_URI, executor, callback2);
+
+    assertEquals(1, executor.runTasksExhaustively());
+    assertEquals(1, transportFactory.transport.buildRequestCount);
+    assertSame(error, callback1.exception);
+    assertSame(error, callback2.exception);
   }
 
   @Test
-  public void equals_true() throws IOException {
-    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+  public void getRequestMetadata_async_throwingCallbackCompletesOtherWaiters() {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
     OAuth2Credentials credentials =
-        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken1, null)).build();
-    OAuth2Credentials otherCredentials =
-        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken1, null)).build();
-    assertTrue(credentials.equals(otherCredentials));
-    assertTrue(otherCredentials.equals(credentials));
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = new TestClock();
+
+    MockExecutor executor = new MockExecutor();
+    MockRequestMetadataCallback callback = new MockRequestMetadataCallback();
+    credentials.getRequestMetadata(CALL_URI, executor, new ThrowingRequestMetadataCallback());
+    credentials.getRequestMetadata(CALL_URI, executor, callback);
+
+    assertEquals(1, executor.runTasksExhaustively());
+    TestUtils.assertContainsBearerToken(callback.metadata, ACCESS_TOKEN);
   }
 
   @Test
-  public void equals_false_accessToken() throws IOException {
-    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
-    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+  public void getRequestMetadata_async_throwingCallbackCompletesOtherWaitersOnFailure() {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    IOException error = new IOException("error");
+    transportFactory.transport.setError(error);
     OAuth2Credentials credentials =
-        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken1, null)).build();
-    OAuth2Credentials otherCredentials =
-        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken2, null)).build();
-    assertFalse(credentials.equals(otherCredentials));
-    assertFalse(otherCredentials.equals(credentials));
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+
+    MockExecutor executor = new MockExecutor();
+    MockRequestMetadataCallback callback = new MockRequestMetadataCallback();
+    credentials.getRequestMetadata(CALL_URI, executor, new ThrowingRequestMetadataCallback());
+    credentials.getRequestMetadata(CALL_URI, executor, callback);
+
+    assertEquals(1, executor.runTasksExhaustively());
+    assertSame(error, callback.exception);
   }
 
   @Test
-  public void toString_containsFields() throws IOException {
-    AccessToken accessToken = new AccessToken("1/MkSJoj1xsli0AccessToken_NKPY2", null);
+  public void getRequestMetadata_async_tooManyWaiters_failsFast() {
     OAuth2Credentials credentials =
-        OAuth2Credentials.newBuilder().setAccessToken(accessToken).build();
-    String expectedToString =
-        String.format(
-            "OAuth2Credentials{requestMetadata=%s, temporaryAccess=%s}",
-            ImmutableMap.of(
-                AuthHttpConstants.AUTHORIZATION,
-                ImmutableList.of(OAuth2Utils.BEARER_PREFIX + accessToken.getTokenValue())),
-            accessToken.toString());
-    assertEquals(expectedToString, credentials.toString());
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(new MockTokenServerTransportFactory())
+            .build();
+    credentials.maxRefreshWaiters = 2;
+
+    MockExecutor executor = new MockExecutor();
+    credentials.getRequestMetadata(CALL_URI, executor, new MockRequestMetadataCallback());
+    credentials.getRequestMetadata(CALL_URI, executor, new MockRequestMetadataCallback());
+    MockRequestMetadataCallback rejected = new MockRequestMetadataCallback();
+    credentials.getRequestMetadata(CALL_URI, executor, rejected);
+
+    assertEquals(1, executor.numTasks());
+    assertTrue(rejected.exception instanceof IOException);
+    assertNull(rejected.metadata);
   }
 
   @Test
-  public void hashCode_equals() throws IOException {
-    final String accessToken = "1/MkSJoj1xsli0AccessToken_NKPY2";
+  public void getRequestMetadataAsync_cachedToken_completesImmediately() throws Exception {
     OAuth2Credentials credentials =
-        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken, null)).build();
-    OAuth2Credentials otherCredentials =
-        OAuth2Credentials.create(new AccessToken(accessToken, null));
-    assertEquals(credentials.hashCode(), otherCredentials.hashCode());
+        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(ACCESS_TOKEN, null)).build();
+    MockExecutor executor = new MockExecutor();
+
+    ListenableFuture<Map<String, List<String>>> future =
+        credentials.getRequestMetadataAsync(CALL_URI, executor);
+
+    assertTrue(future.isDone());
+    assertEquals(0, executor.numTasks());
+    TestUtils.assertContainsBearerToken(future.get(), ACCESS_TOKEN);
   }
 
   @Test
-  public void serialize() throws IOException, ClassNotFoundException {
-    final String accessToken = "1/MkSJoj1xsli0AccessToken_NKPY2";
+  public void getRequestMetadataAsync_refreshes() throws Exception {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
     OAuth2Credentials credentials =
-        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken, null)).build();
-    OAuth2Credentials deserializedCredentials = serializeAndDeserialize(credentials);
-    assertEquals(credentials, deserializedCredentials);
-    assertEquals(credentials.hashCode(), deserializedCredentials.hashCode());
-    assertEquals(credentials.toString(), deserializedCredentials.toString());
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    MockExecutor executor = new MockExecutor();
+
+    ListenableFuture<Map<String, List<String>>> future =
+        credentials.getRequestMetadataAsync(CALL_URI, executor);
+
+    assertFalse(future.isDone());
+    assertEquals(1, executor.runTasksExhaustively());
+    TestUtils.assertContainsBearerToken(future.get(), ACCESS_TOKEN);
+  }
+
+  @Test
+  public void getRequestMetadataAsync_refreshFailure() throws Exception {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    IOException error = new IOException("error");
+    transportFactory.transport.setError(error);
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    MockExecutor executor = new MockExecutor();
+
+    ListenableFuture<Map<String, List<String>>> future =
+        credentials.getRequestMetadataAsync(CALL_URI, executor);
+    executor.runTasksExhaustively();
+
+    try {
+      future.get();
+      fail("Should throw");
+    } catch (ExecutionException e) {
+      assertSame(error, e.getCause());
+    }
+  }
+
+  @Test
+  public void getRequestMetadata_deadline_cachedTokenDoesNotWait() throws IOException {
+    OAuth2Credentials credentials =
+        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(ACCESS_TOKEN, null)).build();
+    MockExecutor executor = new MockExecutor();
+
+    Map<String, List<String>> metadata =
+        credentials.getRequestMetadata(CALL_URI, executor, 0, TimeUnit.MILLISECONDS);
+
+    TestUtils.assertContainsBearerToken(metadata, ACCESS_TOKEN);
+    assertEquals(0, executor.numTasks());
+  }
+
+  @Test
+  public void getRequestMetadata_deadline_timesOutAndRefreshContinues() throws IOException {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = new TestClock();
+    MockExecutor executor = new MockExecutor();
+
+    try {
+      credentials.getRequestMetadata(CALL_URI, executor, 10, TimeUnit.MILLISECONDS);
+      fail("Should throw");
+    } catch (RequestMetadataTimeoutException e) {
+      // Expected
+    }
+
+    // The shared refresh completes for later callers.
+    assertEquals(1, executor.runTasksExhaustively());
+    TestUtils.assertContainsBearerToken(
+        credentials.getRequestMetadata(CALL_URI, executor, 0, TimeUnit.MILLISECONDS), ACCESS_TOKEN);
+    assertEquals(1, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void getRequestMetadataSnapshot_generationChangesWithToken() throws IOException {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = new TestClock();
+
+    RequestMetadataSnapshot snapshot1 = credentials.getRequestMetadataSnapshot(CALL_URI);
+    TestUtils.assertContainsBearerToken(snapshot1.getRequestMetadata(), accessToken1);
+    RequestMetadataSnapshot snapshot2 = credentials.getRequestMetadataSnapshot(CALL_URI);
+    assertEquals(snapshot1.getGeneration(), snapshot2.getGeneration());
+    assertEquals(snapshot1.getRequestMetadata(), snapshot2.getRequestMetadata());
+
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+    credentials.refresh();
+    RequestMetadataSnapshot snapshot3 = credentials.getRequestMetadataSnapshot(CALL_URI);
+    TestUtils.assertContainsBearerToken(snapshot3.getRequestMetadata(), accessToken2);
+    assertTrue(snapshot3.getGeneration() > snapshot1.getGeneration());
+  }
+
+  @Test
+  public void getRequestMetadata_freshToken_doesNotTakeLock() throws Exception {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    final OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = new TestClock();
+    credentials.getRequestMetadata(CALL_URI);
+
+    // Hold the lock from another thread, as a slow refresh would.
+    final CountDownLatch lockHeld = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread holder =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                credentials.lock.lock();
+                try {
+                  lockHeld.countDown();
+                  release.await();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                } finally {
+                  credentials.lock.unlock();
+                }
+              }
+            });
+    holder.start();
+    try {
+      assertTrue(lockHeld.await(5, TimeUnit.SECONDS));
+      Map<String, List<String>> metadata = credentials.getRequestMetadata(CALL_URI);
+      TestUtils.assertContainsBearerToken(metadata, accessToken1);
+      MockRequestMetadataCallback callback = new MockRequestMetadataCallback();
+      credentials.getRequestMetadata(CALL_URI, new MockExecutor(), callback);
+      TestUtils.assertContainsBearerToken(callback.metadata, accessToken1);
+      assertEquals(1, transportFactory.transport.buildRequestCount);
+    } finally {
+      release.countDown();
+      holder.join();
+    }
+  }
+
+  @Test
+  public void adaptiveMargin_fastRefresh_usesMinimumMargin() throws IOException {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    TestClock clock = new TestClock();
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    credentials.enableAdaptiveMargin(
+        AdaptiveMarginOptions.newBuilder()
+            .setMinMarginMillis(30 * 1000)
+            .setMaxMarginMillis(5 * 60 * 1000)
+            .build());
+    TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken1);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+
+    // The local refresh is fast, so the token is used well past the default five minute margin.
+    clock.addToCurrentTime(59 * 60 * 1000);
+    TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken1);
+
+    clock.addToCurrentTime(40 * 1000);
+    TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken2);
+  }
+
+  @Test
+  public void refreshLatencyTracker_derivesMarginWithinBounds() {
+    RefreshLatencyTracker tracker =
+        new RefreshLatencyTracker(
+            AdaptiveMarginOptions.newBuilder()
+                .setMinMarginMillis(1000)
+                .setMaxMarginMillis(60 * 1000)
+                .setLatencyMultiplier(10)
+                .build());
+    // No history yet.
+    assertEquals(60 * 1000, tracker.getMarginMillis());
+
+    tracker.record(TimeUnit.MILLISECONDS.toNanos(500), true);
+    assertEquals(5000, tracker.getMarginMillis());
+
+    // Failures raise the expected number of attempts.
+    tracker.record(TimeUnit.MILLISECONDS.toNanos(500), false);
+    assertEquals(6250, tracker.getMarginMillis());
+
+    for (int i = 0; i < 12; i++) {
+      tracker.record(TimeUnit.MILLISECONDS.toNanos(1), true);
+    }
+    assertEquals(1000, tracker.getMarginMillis());
+
+    for (int i = 0; i < 20; i++) {
+      tracker.record(TimeUnit.SECONDS.toNanos(30), true);
+    }
+    assertEquals(60 * 1000, tracker.getMarginMillis());
+  }
+
+  @Test
+  public void refreshLatencyTracker_slowFailuresRaiseMargin() {
+    RefreshLatencyTracker tracker =
+        new RefreshLatencyTracker(
+            AdaptiveMarginOptions.newBuilder()
+                .setMinMarginMillis(1000)
+                .setMaxMarginMillis(60 * 1000)
+                .setLatencyMultiplier(10)
+                .build());
+    tracker.record(TimeUnit.MILLISECONDS.toNanos(10), true);
+    assertEquals(1000, tracker.getMarginMillis());
+
+    // A refresh that timed out after 30 seconds.
+    tracker.record(TimeUnit.SECONDS.toNanos(30), false);
+    assertEquals(60 * 1000, tracker.getMarginMillis());
+  }
+
+  @Test
+  public void adaptiveMargin_schedulesBackgroundRefreshAheadOfMargin() throws IOException {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    TestClock clock = new TestClock();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    credentials.enableAdaptiveMargin(
+        AdaptiveMarginOptions.newBuilder()
+            .setMinMarginMillis(20 * 60 * 1000)
+            .setMaxMarginMillis(20 * 60 * 1000)
+            .build());
+    RecordingScheduler scheduler = new RecordingScheduler();
+    try {
+      credentials.enableBackgroundRefresh(
+          BackgroundRefreshOptions.newBuilder()
+              .setScheduler(scheduler)
+              .setRefreshMarginMillis(10 * 60 * 1000)
+              .setMaxJitterMillis(0)
+              .build());
+      credentials.getRequestMetadata(CALL_URI);
+
+      // The token is valid for an hour, and callers would wait once it has 20 minutes left.
+      assertEquals(ImmutableList.of(40 * 60 * 1000L), scheduler.delaysMillis);
+      credentials.disableBackgroundRefresh();
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void circuitBreaker_failsFastAndProbesAfterWindow() throws IOException {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    IOException error = new IOException("error");
+    transportFactory.transport.setError(error);
+    TestClock clock = new TestClock();
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    credentials.enableCircuitBreaker(
+        CircuitBreakerOptions.newBuilder()
+            .setInitialWindowMillis(1000)
+            .setMaxWindowMillis(3000)
+            .build());
+
+    try {
+      credentials.getRequestMetadata(CALL_URI);
+      fail("Should throw");
+    } catch (IOException e) {
+      assertSame(error, e);
+    }
+    assertEquals(1, transportFactory.transport.buildRequestCount--);
+
+    // Within the window callers fail fast with the cached failure.
+    try {
+      credentials.getRequestMetadata(CALL_URI);
+      fail("Should throw");
+    } catch (IOException e) {
+      assertSame(error, e.getCause());
+    }
+    assertEquals(0, transportFactory.transport.buildRequestCount);
+
+    // A failed probe opens the breaker for a longer window.
+    clock.addToCurrentTime(1000);
+    try {
+      credentials.getRequestMetadata(CALL_URI);
+      fail("Should throw");
+    } catch (IOException e) {
+      assertSame(error, e);
+    }
+    assertEquals(1, transportFactory.transport.buildRequestCount--);
+    clock.addToCurrentTime(1000);
+    try {
+      credentials.getRequestMetadata(CALL_URI);
+      fail("Should throw");
+    } catch (IOException e) {
+      assertSame(error, e.getCause());
+    }
+
+    // A successful probe closes the breaker.
+    transportFactory.transport.setError(null);
+    clock.addToCurrentTime(1000);
+    TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), ACCESS_TOKEN);
+    assertEquals(1, transportFactory.transport.buildRequestCount--);
+  }
+
+  @Test
+  public void circuitBreaker_servesUnexpiredTokenWhileOpen() throws IOException {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    TestClock clock = new TestClock();
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    credentials.enableCircuitBreaker(CircuitBreakerOptions.newBuilder().build());
+    credentials.getRequestMetadata(CALL_URI);
+
+    // Within five minutes of expiry the refresh fails and opens the breaker.
+    IOException error = new IOException("error");
+    transportFactory.transport.setError(error);
+    clock.addToCurrentTime(57 * 60 * 1000);
+    try {
+      credentials.getRequestMetadata(CALL_URI);
+      fail("Should throw");
+    } catch (IOException e) {
+      assertSame(error, e);
+    }
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+
+    // While the breaker is open the token is served until it expires.
+    TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken1);
+    MockRequestMetadataCallback callback = new MockRequestMetadataCallback();
+    MockExecutor executor = new MockExecutor();
+    credentials.getRequestMetadata(CALL_URI, executor, callback);
+    executor.runTasksExhaustively();
+    TestUtils.assertContainsBearerToken(callback.metadata, accessToken1);
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void backgroundRefresh_staleToken_servesCurrentTokenAndRefreshes() throws Exception {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    TestClock clock = new TestClock();
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      credentials.enableBackgroundRefresh(
+          BackgroundRefreshOptions.newBuilder()
+              .setScheduler(scheduler)
+              .setRefreshMarginMillis(10 * 60 * 1000)
+              .setMaxJitterMillis(0)
+              .build());
+      LatchChangeListener listener = new LatchChangeListener(2);
+      credentials.addChangeListener(listener);
+
+      Map<String, List<String>> metadata = credentials.getRequestMetadata(CALL_URI);
+      TestUtils.assertContainsBearerToken(metadata, accessToken1);
+
+      // Enter the refresh margin while the token is still valid. The current token is returned
+      // and the refresh happens in the background.
+      transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+      clock.addToCurrentTime(51 * 60 * 1000);
+      metadata = credentials.getRequestMetadata(CALL_URI);
+      TestUtils.assertContainsBearerToken(metadata, accessToken1);
+
+      assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+      metadata = credentials.getRequestMetadata(CALL_URI);
+      TestUtils.assertContainsBearerToken(metadata, accessToken2);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void backgroundRefresh_runsOnRefreshExecutor() throws Exception {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    TestClock clock = new TestClock();
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    MockExecutor refreshExecutor = new MockExecutor();
+    try {
+      credentials.enableBackgroundRefresh(
+          BackgroundRefreshOptions.newBuilder()
+              .setScheduler(scheduler)
+              .setRefreshExecutor(refreshExecutor)
+              .setMaxJitterMillis(0)
+              .build());
+      credentials.getRequestMetadata(CALL_URI);
+
+      transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+      clock.addToCurrentTime(51 * 60 * 1000);
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken1);
+
+      assertEquals(1, refreshExecutor.runTasksExhaustively());
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken2);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void backgroundRefresh_useVirtualThreads_fallsBackBeforeJava21() {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      BackgroundRefreshOptions options =
+          BackgroundRefreshOptions.newBuilder()
+              .setScheduler(scheduler)
+              .setUseVirtualThreads(true)
+              .build();
+      if (VirtualThreads.isSupported()) {
+        assertNotSame(scheduler, options.getRefreshExecutor());
+      } else {
+        assertSame(scheduler, options.getRefreshExecutor());
+      }
+      assertTrue(options.toBuilder().isUseVirtualThreads());
+      assertNull(options.toBuilder().getRefreshExecutor());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void staleWhileRevalidate_servesValidTokenWhileRefreshFails() throws Exception {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    TestClock clock = new TestClock();
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      credentials.enableBackgroundRefresh(
+          BackgroundRefreshOptions.newBuilder()
+              .setScheduler(scheduler)
+              .setMaxJitterMillis(0)
+              .setRetryDelayMillis(10)
+              .setStaleWhileRevalidate(true)
+              .build());
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken1);
+
+      // The token endpoint is down and the token has less than the usual minimum lifetime left.
+      IOException error = new IOException("error");
+      transportFactory.transport.setError(error);
+      clock.addToCurrentTime(57 * 60 * 1000);
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken1);
+
+      // An explicit refresh fails without discarding the token.
+      try {
+        credentials.refresh();
+        fail("Should throw");
+      } catch (IOException e) {
+        assertSame(error, e);
+      }
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken1);
+
+      // The background refresh is retried until the endpoint recovers.
+      LatchChangeListener listener = new LatchChangeListener(1);
+      credentials.addChangeListener(listener);
+      transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+      transportFactory.transport.setError(null);
+      assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken2);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void staleWhileRevalidate_hardExpiryBlocksForRefresh() throws Exception {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    TestClock clock = new TestClock();
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      credentials.enableBackgroundRefresh(
+          BackgroundRefreshOptions.newBuilder()
+              .setScheduler(scheduler)
+              .setStaleWhileRevalidate(true)
+              .build());
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken1);
+
+      transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+      clock.addToCurrentTime(60 * 60 * 1000);
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken2);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void staleWhileRevalidate_belowMinimumValidityBlocksForRefresh() throws Exception {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    TestClock clock = new TestClock();
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      credentials.enableBackgroundRefresh(
+          BackgroundRefreshOptions.newBuilder()
+              .setScheduler(scheduler)
+              .setStaleWhileRevalidate(true)
+              .setMinimumValidityMillis(60 * 1000)
+              .build());
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken1);
+
+      // The endpoint is down, so a token that is about to expire is not served.
+      IOException error = new IOException("error");
+      transportFactory.transport.setError(error);
+      clock.addToCurrentTime(59 * 60 * 1000 + 30 * 1000);
+      try {
+        credentials.getRequestMetadata(CALL_URI);
+        fail("Should throw");
+      } catch (IOException e) {
+        assertSame(error, e);
+      }
+
+      transportFactory.transport.setError(null);
+      transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken2);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void backgroundRefresh_refreshesAheadOfExpiry() throws Exception {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    transportFactory.transport.setExpiresInSeconds(2);
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    // The fixed clock keeps the token valid, the refresh is scheduled in real time.
+    credentials.clock = new TestClock();
+    credentials.getRequestMetadata(CALL_URI);
+
+    // The token expires in 2 seconds and the refresh is due 1 second before.
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      LatchChangeListener listener = new LatchChangeListener(1);
+      credentials.addChangeListener(listener);
+      transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+      credentials.enableBackgroundRefresh(
+          BackgroundRefreshOptions.newBuilder()
+              .setScheduler(scheduler)
+              .setRefreshMarginMillis(1000)
+              .setMaxJitterMillis(0)
+              .setRetryDelayMillis(0)
+              .build());
+      assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+      credentials.disableBackgroundRefresh();
+      TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken2);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void backgroundRefresh_marginLongerThanLifetime_doesNotRefreshContinuously()
+      throws Exception {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    OAuth2Credentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = new TestClock();
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      // Tokens are valid for 1 hour, shorter than the margin.
+      credentials.enableBackgroundRefresh(
+          BackgroundRefreshOptions.newBuilder()
+              .setScheduler(scheduler)
+              .setRefreshMarginMillis(TimeUnit.HOURS.toMillis(2))
+              .setRetryDelayMillis(0)
+              .build());
+      credentials.getRequestMetadata(CALL_URI);
+      Thread.sleep(500);
+      for (int i = 0; i < 10; i++) {
+        credentials.getRequestMetadata(CALL_URI);
+      }
+      Thread.sleep(100);
+
+      assertEquals(1, transportFactory.transport.buildRequestCount);
+      credentials.disableBackgroundRefresh();
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void backgroundRefresh_warmsUpConnectionAheadOfRefresh() throws Exception {
+    final CountDownLatch warmedUp = new CountDownLatch(1);
+    long lifetimeMillis = TimeUnit.HOURS.toMillis(1);
+    OAuth2Credentials credentials =
+        new OAuth2Credentials(
+            new AccessToken(ACCESS_TOKEN, new Date(System.currentTimeMillis() + lifetimeMillis))) {
+          @Override
+          void warmUpConnection() {
+            warmedUp.countDown();
+          }
+        };
+
+    // The refresh is due in 55 minutes, and the warm-up shortly after enabling.
+    long marginMillis = TimeUnit.MINUTES.toMillis(5);
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      credentials.enableBackgroundRefresh(
+          BackgroundRefreshOptions.newBuilder()
+              .setScheduler(scheduler)
+              .setRefreshMarginMillis(marginMillis)
+              .setMaxJitterMillis(0)
+              .setWarmUpLeadMillis(lifetimeMillis - marginMillis - 100)
+              .build());
+      assertTrue(warmedUp.await(5, TimeUnit.SECONDS));
+      credentials.disableBackgroundRefresh();
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void getRequestMetadata_temporaryToken_hasToken() throws IOException {
+    OAuth2Credentials credentials =
+        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(ACCESS_TOKEN, null)).build();
+
+    // Verify getting the first token
+    Map<String, List<String>> metadata = credentials.getRequestMetadata(CALL_URI);
+    TestUtils.assertContainsBearerToken(metadata, ACCESS_TOKEN);
+  }
+
+  @Test
+  public void refresh_refreshesToken() throws IOException {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    OAuth2Credentials userCredentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    // Use a fixed clock so tokens don't expire
+    userCredentials.clock = new TestClock();
+
+    // Get a first token
+    Map<String, List<String>> metadata = userCredentials.getRequestMetadata(CALL_URI);
+    TestUtils.assertContainsBearerToken(metadata, accessToken1);
+    assertEquals(1, transportFactory.transport.buildRequestCount--);
+
+    // Change server to a different token
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+
+    // Confirm token being cached
+    TestUtils.assertContainsBearerToken(metadata, accessToken1);
+    assertEquals(0, transportFactory.transport.buildRequestCount);
+
+    // Refresh to force getting next token
+    userCredentials.refresh();
+    metadata = userCredentials.getRequestMetadata(CALL_URI);
+    TestUtils.assertContainsBearerToken(metadata, accessToken2);
+    assertEquals(1, transportFactory.transport.buildRequestCount--);
+  }
+
+  @Test
+  public void refreshIfExpired_refreshesToken() throws IOException {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    OAuth2Credentials userCredentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    // Use a fixed clock so tokens don't expire
+    TestClock mockClock = new TestClock();
+    userCredentials.clock = mockClock;
+    userCredentials.ticker = mockClock;
+
+    // Get a first token
+    Map<String, List<String>> metadata = userCredentials.getRequestMetadata(CALL_URI);
+    TestUtils.assertContainsBearerToken(metadata, accessToken1);
+    assertEquals(1, transportFactory.transport.buildRequestCount--);
+
+    // Change server to a different token
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+
+    // Confirm token being cached
+    TestUtils.assertContainsBearerToken(metadata, accessToken1);
+    assertEquals(0, transportFactory.transport.buildRequestCount);
+
+    // Should not refresh yet
+    userCredentials.refreshIfExpired();
+    metadata = userCredentials.getRequestMetadata(CALL_URI);
+    TestUtils.assertNotContainsBearerToken(metadata, accessToken2);
+
+    // Jump ahead to expire the token
+    mockClock.addToCurrentTime(3600000);
+    userCredentials.refreshIfExpired();
+    metadata = userCredentials.getRequestMetadata(CALL_URI);
+    TestUtils.assertContainsBearerToken(metadata, accessToken2);
+
+    assertEquals(1, transportFactory.transport.buildRequestCount--);
+  }
+
+  @Test
+  public void getRequestMetadata_wallClockSteps_expiryFollowsTicker() throws IOException {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken1);
+    OAuth2Credentials userCredentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    TestClock wallClock = new TestClock();
+    TestClock ticker = new TestClock();
+    userCredentials.clock = wallClock;
+    userCredentials.ticker = ticker;
+
+    Map<String, List<String>> metadata = userCredentials.getRequestMetadata(CALL_URI);
+    TestUtils.assertContainsBearerToken(metadata, accessToken1);
+    assertEquals(1, transportFactory.transport.buildRequestCount--);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken2);
+
+    // A step of the wall clock past the expiry does not expire the token.
+    wallClock.addToCurrentTime(TimeUnit.HOURS.toMillis(2));
+    metadata = userCredentials.getRequestMetadata(CALL_URI);
+    TestUtils.assertContainsBearerToken(metadata, accessToken1);
+    assertEquals(0, transportFactory.transport.buildRequestCount);
+
+    // Nor does a step back keep using the token once its lifetime has elapsed.
+    wallClock.setCurrentTime(-TimeUnit.HOURS.toMillis(2));
+    ticker.addToCurrentTime(TimeUnit.HOURS.toMillis(1));
+    metadata = userCredentials.getRequestMetadata(CALL_URI);
+    TestUtils.assertContainsBearerToken(metadata, accessToken2);
+    assertEquals(1, transportFactory.transport.buildRequestCount--);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void refresh_temporaryToken_throws() throws IOException {
+    OAuth2Credentials credentials =
+        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(ACCESS_TOKEN, null)).build();
+    credentials.refresh();
+  }
+
+  @Test
+  public void equals_true() throws IOException {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    OAuth2Credentials credentials =
+        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken1, null)).build();
+    OAuth2Credentials otherCredentials =
+        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken1, null)).build();
+    assertTrue(credentials.equals(otherCredentials));
+    assertTrue(otherCredentials.equals(credentials));
+  }
+
+  @Test
+  public void equals_false_accessToken() throws IOException {
+    final String accessToken1 = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    final String accessToken2 = "2/MkSJoj1xsli0AccessToken_NKPY2";
+    OAuth2Credentials credentials =
+        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken1, null)).build();
+    OAuth2Credentials otherCredentials =
+        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken2, null)).build();
+    assertFalse(credentials.equals(otherCredentials));
+    assertFalse(otherCredentials.equals(credentials));
+  }
+
+  @Test
+  public void toString_containsFields() throws IOException {
+    AccessToken accessToken = new AccessToken("1/MkSJoj1xsli0AccessToken_NKPY2", null);
+    OAuth2Credentials credentials =
+        OAuth2Credentials.newBuilder().setAccessToken(accessToken).build();
+    String expectedToString =
+        String.format(
+            "OAuth2Credentials{requestMetadata=%s, temporaryAccess=%s}",
+            ImmutableMap.of(
+                AuthHttpConstants.AUTHORIZATION,
+                ImmutableList.of(OAuth2Utils.BEARER_PREFIX + accessToken.getTokenValue())),
+            accessToken.toString());
+    assertEquals(expectedToString, credentials.toString());
+  }
+
+  @Test
+  public void hashCode_equals() throws IOException {
+    final String accessToken = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    OAuth2Credentials credentials =
+        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken, null)).build();
+    OAuth2Credentials otherCredentials =
+        OAuth2Credentials.create(new AccessToken(accessToken, null));
+    assertEquals(credentials.hashCode(), otherCredentials.hashCode());
+  }
+
+  @Test
+  public void serialize() throws IOException, ClassNotFoundException {
+    final String accessToken = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    OAuth2Credentials credentials =
+        OAuth2Credentials.newBuilder().setAccessToken(new AccessToken(accessToken, null)).build();
+    OAuth2Credentials deserializedCredentials = serializeAndDeserialize(credentials);
+    assertEquals(credentials, deserializedCredentials);
+    assertEquals(credentials.hashCode(), deserializedCredentials.hashCode());
+    assertEquals(credentials.toString(), deserializedCredentials.toString());
     assertSame(deserializedCredentials.clock, Clock.SYSTEM);
   }
 
+  @Test
+  public void serialize_readsFormOfEarlierVersions() throws IOException, ClassNotFoundException {
+    // Written by version 0.21 for a token expiring in 2100.
+    InputStream stream =
+        OAuth2CredentialsTest.class
+            .getClassLoader()
+            .getResourceAsStream("oauth2_credentials_0.21.ser");
+    OAuth2Credentials credentials;
+    try (ObjectInputStream input = new ObjectInputStream(stream)) {
+      credentials = (OAuth2Credentials) input.readObject();
+    }
+
+    String accessToken = "1/MkSJoj1xsli0AccessToken_NKPY2";
+    assertEquals(accessToken, credentials.getAccessToken().getTokenValue());
+    assertEquals(4102444800000L, credentials.getAccessToken().getExpirationTime().getTime());
+    TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), accessToken);
+    assertEquals(credentials, serializeAndDeserialize(credentials));
+  }
+
+  @Test
+  public void serialize_writesFormOfEarlierVersions() {
+    ObjectStreamClass streamClass = ObjectStreamClass.lookup(OAuth2Credentials.class);
+
+    assertEquals(4556936364828217687L, streamClass.getSerialVersionUID());
+    assertEquals(3, streamClass.getFields().length);
+    assertEquals(Object.class, streamClass.getField("lock").getType());
+    assertEquals(Map.class, streamClass.getField("requestMetadata").getType());
+    assertEquals(AccessToken.class, streamClass.getField("temporaryAccess").getType());
+  }
+
+  /** Records the delays of the tasks it schedules. */
+  private static class RecordingScheduler extends ScheduledThreadPoolExecutor {
+
+    final List<Long> delaysMillis = new CopyOnWriteArrayList<>();
+
+    RecordingScheduler() {
+      super(1);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      delaysMillis.add(unit.toMillis(delay));
+      return super.schedule(command, delay, unit);
+    }
+  }
+
+  private static class ThrowingRequestMetadataCallback implements RequestMetadataCallback {
+
+    @Override
+    public void onSuccess(Map<String, List<String>> metadata) {
+      throw new IllegalStateException("onSuccess");
+    }
+
+    @Override
+    public void onFailure(Throwable exception) {
+      throw new IllegalStateException("onFailure");
+    }
+  }
+
+  static class RecordingMetricsRecorder extends MetricsRecorder {
+
+    int successfulRefreshes;
+    int failedRefreshes;
+    int lockWaits;
+    Object lastCredentials;
+    final List<Integer> refreshWaiters = new ArrayList<>();
+    final List<String> cacheAccesses = new ArrayList<>();
+
+    @Override
+    public synchronized void recordRefresh(
+        Credentials credentials, long latencyNanos, boolean success) {
+      assertTrue(latencyNanos >= 0);
+      lastCredentials = credentials;
+      if (success) {
+        successfulRefreshes++;
+      } else {
+        failedRefreshes++;
+      }
+    }
+
+    @Override
+    public synchronized void recordRefreshWaiters(Credentials credentials, int waiters) {
+      refreshWaiters.add(waiters);
+    }
+
+    @Override
+    public synchronized void recordCacheAccess(String cacheName, boolean hit) {
+      cacheAccesses.add(cacheName + (hit ? ":hit" : ":miss"));
+    }
+
+    @Override
+    public synchronized void recordLockWait(Credentials credentials, long waitNanos) {
+      lockWaits++;
+    }
+  }
+
+  static class RecordingAuthTracer extends AuthTracer {
+
+    final List<String> events = new ArrayList<>();
+    HttpRequest injectedRequest;
+    private String currentSpan;
+
+    @Override
+    public Span startSpan(final String name, Credentials credentials) {
+      events.add("start " + name);
+      currentSpan = name;
+      return new Span() {
+        @Override
+        public void recordError(Throwable error) {
+          events.add("error " + error.getMessage());
+        }
+
+        @Override
+        public void end() {
+          events.add("end");
+          currentSpan = null;
+        }
+      };
+    }
+
+    @Override
+    public void injectTraceHeaders(HttpRequest request) {
+      events.add("inject " + currentSpan);
+      request.getHeaders().set("x-trace", currentSpan);
+      injectedRequest = request;
+    }
+  }
+
+  private static class LatchChangeListener implements OAuth2Credentials.CredentialsChangedListener {
+
+    final CountDownLatch latch;
+
+    LatchChangeListener(int count) {
+      latch = new CountDownLatch(count);
+    }
+
+    @Override
+    public void onChanged(OAuth2Credentials credentials) {
+      latch.countDown();
+    }
+  }
+
   private static class TestChangeListener implements OAuth2Credentials.CredentialsChangedListener {
 
     public AccessToken accessToken = null;
@@ -57,6 +57,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -250,6 +251,7 @@ public class ServiceAccountJwtAccessCredentialsTest extends BaseSerializationTes
             .setPrivateKeyId(SA_PRIVATE_KEY_ID)
             .build();
     credentials.clock = testClock;
+    credentials.ticker = testClock;
 
     Map<String, List<String>> metadata1 = credentials.getRequestMetadata(CALL_URI);
 
@@ -262,6 +264,32 @@ public class ServiceAccountJwtAccessCredentialsTest extends BaseSerializationTes
     assertEquals(metadata1, metadata2);
   }
 
+  @Test
+  public void getRequestMetadata_blocking_recordsCacheAccess() throws IOException {
+    PrivateKey privateKey = ServiceAccountCredentials.privateKeyFromPkcs8(SA_PRIVATE_KEY_PKCS8);
+    ServiceAccountJwtAccessCredentials credentials =
+        ServiceAccountJwtAccessCredentials.newBuilder()
+            .setClientId(SA_CLIENT_ID)
+            .setClientEmail(SA_CLIENT_EMAIL)
+            .setPrivateKey(privateKey)
+            .setPrivateKeyId(SA_PRIVATE_KEY_ID)
+            .build();
+    OAuth2CredentialsTest.RecordingMetricsRecorder recorder =
+        new OAuth2CredentialsTest.RecordingMetricsRecorder();
+    MetricsRecorder.setDefault(recorder);
+    try {
+      credentials.getRequestMetadata(CALL_URI);
+      credentials.getRequestMetadata(CALL_URI);
+    } finally {
+      MetricsRecorder.setDefault(null);
+    }
+
+    assertEquals(
+        Arrays.asList(
+            MetricsRecorder.JWT_ACCESS_CACHE + ":miss", MetricsRecorder.JWT_ACCESS_CACHE + ":hit"),
+        recorder.cacheAccesses);
+  }
+
   @Test
   public void getRequestMetadata_blocking_cache_expired() throws IOException {
     TestClock testClock = new TestClock();
@@ -275,6 +303,7 @@ public class ServiceAccountJwtAccessCredentialsTest extends BaseSerializationTes
             .setPrivateKeyId(SA_PRIVATE_KEY_ID)
             .build();
     credentials.clock = testClock;
+    credentials.ticker = testClock;
 
     Map<String, List<String>> metadata1 = credentials.getRequestMetadata(CALL_URI);
 
@@ -357,6 +386,7 @@ public class ServiceAccountJwtAccessCredentialsTest extends BaseSerializationTes
             .setPrivateKeyId(SA_PRIVATE_KEY_ID)
             .build();
     credentials.clock = testClock;
+    credentials.ticker = testClock;
     MockExecutor executor = new MockExecutor();
 
     MockRequestMetadataCallback callback1 = new MockRequestMetadataCallback();
@@ -385,6 +415,7 @@ public class ServiceAccountJwtAccessCredentialsTest extends BaseSerializationTes
             .setPrivateKeyId(SA_PRIVATE_KEY_ID)
             .build();
     credentials.clock = testClock;
+    credentials.ticker = testClock;
     MockExecutor executor = new MockExecutor();
 
     MockRequestMetadataCallback callback1 = new MockRequestMetadataCallback();
@@ -418,6 +449,8 @@ public class ServiceAccountJwtAccessCredentialsTest extends BaseSerializationTes
     assertEquals(
         metadata.get(GoogleCredentials.QUOTA_PROJECT_ID_HEADER_KEY),
         Collections.singletonList(QUOTA_PROJECT));
+    // The combined metadata is computed once per JWT.
+    assertSame(metadata, credentials.getRequestMetadata(CALL_URI));
   }
 
   @Test
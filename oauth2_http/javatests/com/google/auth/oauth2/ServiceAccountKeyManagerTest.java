@@ -0,0 +1,215 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.json.GenericJson;
+import com.google.auth.Credentials;
+import com.google.auth.TestUtils;
+import com.google.auth.oauth2.GoogleCredentialsTest.MockTokenServerTransportFactory;
+import com.google.common.collect.ImmutableSet;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ServiceAccountKeyManagerTest {
+
+  private static final String CLIENT_EMAIL_A = ServiceAccountCredentialsTest.CLIENT_EMAIL;
+  private static final String CLIENT_EMAIL_B = "other@developer.gserviceaccount.com";
+  private static final String ACCESS_TOKEN_A = "1/MkSJoj1xsli0AccessToken_NKPY2";
+  private static final String ACCESS_TOKEN_B = "2/MkSJoj1xsli0AccessToken_NKPY2";
+  private static final URI CALL_URI = URI.create("http://googleapis.com/testapi/v1/foo");
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void keyDirectory_indexesTenantsWithoutParsing() throws IOException {
+    writeKeyFile("tenant-a", CLIENT_EMAIL_A);
+    writeKeyFile("tenant-b", CLIENT_EMAIL_B);
+    folder.newFile("README.txt");
+
+    ServiceAccountKeyManager manager =
+        ServiceAccountKeyManager.newBuilder().setKeyDirectory(folder.getRoot()).build();
+
+    assertEquals(ImmutableSet.of("tenant-a", "tenant-b"), manager.getKeyDirectoryTenants());
+    assertEquals(0, manager.loadedCount());
+  }
+
+  @Test
+  public void getCredentials_parsesKeyOnFirstUse() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN_A);
+    transportFactory.transport.addServiceAccount(CLIENT_EMAIL_B, ACCESS_TOKEN_B);
+    writeKeyFile("tenant-a", CLIENT_EMAIL_A);
+    writeKeyFile("tenant-b", CLIENT_EMAIL_B);
+    ServiceAccountKeyManager manager = newDirectoryManager(transportFactory, 10);
+
+    Credentials credentials = manager.getCredentials("tenant-a");
+    assertEquals(0, manager.loadedCount());
+
+    TestUtils.assertContainsBearerToken(credentials.getRequestMetadata(CALL_URI), ACCESS_TOKEN_A);
+    TestUtils.assertContainsBearerToken(
+        manager.getCredentials("tenant-b").getRequestMetadata(CALL_URI), ACCESS_TOKEN_B);
+    TestUtils.assertContainsBearerToken(
+        manager.getCredentials("tenant-a").getRequestMetadata(CALL_URI), ACCESS_TOKEN_A);
+    assertEquals(2, manager.loadedCount());
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void getServiceAccountCredentials_reusesLoadedCredentials() throws IOException {
+    CountingKeySource keySource = new CountingKeySource();
+    ServiceAccountKeyManager manager =
+        ServiceAccountKeyManager.newBuilder()
+            .setKeySource(keySource)
+            .setScopes(Collections.singleton("scope"))
+            .build();
+
+    ServiceAccountCredentials credentials = manager.getServiceAccountCredentials("tenant-a");
+
+    assertSame(credentials, manager.getServiceAccountCredentials("tenant-a"));
+    assertEquals(1, keySource.opened.get());
+    assertEquals(ImmutableSet.of("scope"), ImmutableSet.copyOf(credentials.getScopes()));
+  }
+
+  @Test
+  public void getServiceAccountCredentials_boundsLoadedKeys() throws IOException {
+    CountingKeySource keySource = new CountingKeySource();
+    ServiceAccountKeyManager manager =
+        ServiceAccountKeyManager.newBuilder()
+            .setKeySource(keySource)
+            .setMaximumLoadedKeys(2)
+            .build();
+
+    for (int i = 0; i < 10; i++) {
+      manager.getServiceAccountCredentials("tenant-" + i);
+    }
+
+    assertTrue(manager.loadedCount() <= 2);
+    assertEquals(10, keySource.opened.get());
+  }
+
+  @Test
+  public void invalidate_reloadsKey() throws IOException {
+    CountingKeySource keySource = new CountingKeySource();
+    ServiceAccountKeyManager manager =
+        ServiceAccountKeyManager.newBuilder().setKeySource(keySource).build();
+    manager.getServiceAccountCredentials("tenant-a");
+
+    manager.invalidate("tenant-a");
+    manager.getServiceAccountCredentials("tenant-a");
+
+    assertEquals(2, keySource.opened.get());
+  }
+
+  @Test
+  public void getRequestMetadata_unknownTenant_throws() throws IOException {
+    ServiceAccountKeyManager manager =
+        newDirectoryManager(
+            ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN_A), 10);
+
+    try {
+      manager.getCredentials("missing").getRequestMetadata(CALL_URI);
+      fail("Should not load credentials of a tenant without a key.");
+    } catch (FileNotFoundException expected) {
+      assertTrue(expected.getMessage().contains("missing"));
+    }
+    assertEquals(0, manager.loadedCount());
+  }
+
+  @Test
+  public void getKeyDirectoryTenants_keySource_returnsNull() {
+    ServiceAccountKeyManager manager =
+        ServiceAccountKeyManager.newBuilder().setKeySource(new CountingKeySource()).build();
+
+    assertNull(manager.getKeyDirectoryTenants());
+  }
+
+  private ServiceAccountKeyManager newDirectoryManager(
+      MockTokenServerTransportFactory transportFactory, long maximumLoadedKeys) throws IOException {
+    return ServiceAccountKeyManager.newBuilder()
+        .setKeyDirectory(folder.getRoot())
+        .setScopes(Collections.singleton("scope"))
+        .setHttpTransportFactory(transportFactory)
+        .setMaximumLoadedKeys(maximumLoadedKeys)
+        .build();
+  }
+
+  private void writeKeyFile(String tenant, String clientEmail) throws IOException {
+    GenericJson json =
+        ServiceAccountCredentialsTest.writeServiceAccountJson(
+            ServiceAccountCredentialsTest.CLIENT_ID,
+            clientEmail,
+            ServiceAccountCredentialsTest.PRIVATE_KEY_PKCS8,
+            ServiceAccountCredentialsTest.PRIVATE_KEY_ID,
+            null,
+            null);
+    json.setFactory(OAuth2Utils.JSON_FACTORY);
+    OutputStream stream = new FileOutputStream(folder.newFile(tenant + ".json"));
+    try {
+      stream.write(json.toString().getBytes(StandardCharsets.UTF_8));
+    } finally {
+      stream.close();
+    }
+  }
+
+  private static class CountingKeySource implements ServiceAccountKeyManager.KeySource {
+    final AtomicInteger opened = new AtomicInteger();
+
+    @Override
+    public InputStream openKey(String tenant) throws IOException {
+      opened.incrementAndGet();
+      return ServiceAccountCredentialsTest.writeServiceAccountStream(
+          ServiceAccountCredentialsTest.CLIENT_ID,
+          tenant + "@developer.gserviceaccount.com",
+          ServiceAccountCredentialsTest.PRIVATE_KEY_PKCS8,
+          ServiceAccountCredentialsTest.PRIVATE_KEY_ID);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.auth.http.HttpTransportFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test case for {@link SharedHttpTransports}. */
+@RunWith(JUnit4.class)
+public class SharedHttpTransportsTest {
+
+  private static final GenericUrl TOKEN_URL = new GenericUrl(OAuth2Utils.TOKEN_SERVER_URI);
+
+  @Test
+  public void getTransport_createsOneTransportPerFactory() {
+    CountingTransportFactory transportFactory = new CountingTransportFactory();
+
+    HttpTransport transport = SharedHttpTransports.getTransport(transportFactory);
+    assertSame(transport, SharedHttpTransports.getTransport(transportFactory));
+    assertSame(transport, SharedHttpTransports.getRequestFactory(transportFactory).getTransport());
+    assertEquals(1, transportFactory.createCount);
+
+    CountingTransportFactory otherTransportFactory = new CountingTransportFactory();
+    SharedHttpTransports.getTransport(otherTransportFactory);
+    assertEquals(1, otherTransportFactory.createCount);
+  }
+
+  @Test
+  public void warmUp_sendsHeadRequestAndIgnoresStatus() throws IOException {
+    CountingTransportFactory transportFactory = new CountingTransportFactory();
+
+    SharedHttpTransports.warmUp(transportFactory, TOKEN_URL);
+
+    assertEquals(1, transportFactory.requests.size());
+    assertEquals("HEAD " + TOKEN_URL, transportFactory.requests.get(0));
+  }
+
+  private static class CountingTransportFactory implements HttpTransportFactory {
+    final List<String> requests = new ArrayList<>();
+    int createCount;
+
+    @Override
+    public HttpTransport create() {
+      createCount++;
+      return new MockHttpTransport() {
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, String url) {
+          requests.add(method + " " + url);
+          return new MockLowLevelHttpRequest(url)
+              .setResponse(new MockLowLevelHttpResponse().setStatusCode(404));
+        }
+      };
+    }
+  }
+}
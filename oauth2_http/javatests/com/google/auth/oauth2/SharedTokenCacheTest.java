@@ -0,0 +1,296 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.google.auth.TestClock;
+import com.google.auth.TestUtils;
+import com.google.auth.oauth2.GoogleCredentialsTest.MockTokenServerTransportFactory;
+import java.io.IOException;
+import java.net.URI;
+import java.security.KeyPairGenerator;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test case for {@link SharedTokenCache}. */
+@RunWith(JUnit4.class)
+public class SharedTokenCacheTest {
+
+  private static final String OTHER_REFRESH_TOKEN = "1/Tl6awhpFjkMkSJoj1xsli0H2eL5YsMgU_OTHER";
+  private static final String ACCESS_TOKEN = "1/MkSJoj1xsli0AccessToken_NKPY2";
+  private static final String NEW_ACCESS_TOKEN = "2/MkSJoj1xsli0AccessToken_NKPY2";
+  private static final String SCOPE_1 = "scope1";
+  private static final String SCOPE_2 = "scope2";
+  private static final URI CALL_URI = URI.create("http://googleapis.com/testapi/v1/foo");
+
+  @After
+  public void tearDown() {
+    SharedTokenCache.disable();
+  }
+
+  @Test
+  public void disabledByDefault_credentialsRefreshSeparately() throws IOException {
+    MockTokenServerTransportFactory transportFactory =
+        UserCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    assertNull(SharedTokenCache.getEnabled());
+
+    UserCredentialsTest.createDefaultBuilder()
+        .setHttpTransportFactory(transportFactory)
+        .build()
+        .getRequestMetadata(CALL_URI);
+    UserCredentialsTest.createDefaultBuilder()
+        .setHttpTransportFactory(transportFactory)
+        .build()
+        .getRequestMetadata(CALL_URI);
+
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void equivalentCredentials_shareOneToken() throws IOException {
+    SharedTokenCache.enable();
+    MockTokenServerTransportFactory transportFactory =
+        UserCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+
+    TestUtils.assertContainsBearerToken(
+        UserCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build()
+            .getRequestMetadata(CALL_URI),
+        ACCESS_TOKEN);
+    TestUtils.assertContainsBearerToken(
+        UserCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build()
+            .getRequestMetadata(CALL_URI),
+        ACCESS_TOKEN);
+
+    assertEquals(1, transportFactory.transport.buildRequestCount);
+    assertEquals(1, SharedTokenCache.getEnabled().size());
+  }
+
+  @Test
+  public void differentIdentities_doNotShareTokens() throws IOException {
+    SharedTokenCache.enable();
+    MockTokenServerTransportFactory transportFactory =
+        UserCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    transportFactory.transport.addRefreshToken(OTHER_REFRESH_TOKEN, NEW_ACCESS_TOKEN);
+
+    UserCredentialsTest.createDefaultBuilder()
+        .setHttpTransportFactory(transportFactory)
+        .build()
+        .getRequestMetadata(CALL_URI);
+    TestUtils.assertContainsBearerToken(
+        UserCredentialsTest.createDefaultBuilder()
+            .setRefreshToken(OTHER_REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build()
+            .getRequestMetadata(CALL_URI),
+        NEW_ACCESS_TOKEN);
+
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+    assertEquals(2, SharedTokenCache.getEnabled().size());
+  }
+
+  @Test
+  public void refresh_replacesSharedToken() throws IOException {
+    SharedTokenCache.enable();
+    MockTokenServerTransportFactory transportFactory =
+        UserCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    UserCredentials credentials1 =
+        UserCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    UserCredentials credentials2 =
+        UserCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials1.getRequestMetadata(CALL_URI);
+    credentials2.getRequestMetadata(CALL_URI);
+
+    // An explicit refresh does not reuse the token it replaces.
+    transportFactory.transport.addRefreshToken(UserCredentialsTest.REFRESH_TOKEN, NEW_ACCESS_TOKEN);
+    credentials1.refresh();
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+    assertEquals(NEW_ACCESS_TOKEN, credentials1.getAccessToken().getTokenValue());
+
+    // Other instances replacing the old token pick up the new shared one.
+    credentials2.refresh();
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+    assertEquals(NEW_ACCESS_TOKEN, credentials2.getAccessToken().getTokenValue());
+  }
+
+  @Test
+  public void sharedToken_expiryFollowsTicker() throws IOException {
+    SharedTokenCache.enable();
+    MockTokenServerTransportFactory transportFactory =
+        UserCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    TestClock ticker = new TestClock();
+    UserCredentials credentials1 =
+        UserCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials1.clock = new TestClock();
+    credentials1.ticker = ticker;
+    credentials1.getRequestMetadata(CALL_URI);
+
+    // A step of the wall clock past the expiry does not discard the shared token.
+    TestClock wallClock = new TestClock();
+    wallClock.setCurrentTime(TimeUnit.HOURS.toMillis(2));
+    UserCredentials credentials2 =
+        UserCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials2.clock = wallClock;
+    credentials2.ticker = ticker;
+    TestUtils.assertContainsBearerToken(credentials2.getRequestMetadata(CALL_URI), ACCESS_TOKEN);
+    assertEquals(1, transportFactory.transport.buildRequestCount);
+
+    // Nor does a step back keep sharing it once its lifetime has elapsed.
+    transportFactory.transport.addRefreshToken(UserCredentialsTest.REFRESH_TOKEN, NEW_ACCESS_TOKEN);
+    wallClock.setCurrentTime(-TimeUnit.HOURS.toMillis(2));
+    ticker.addToCurrentTime(TimeUnit.HOURS.toMillis(1));
+    UserCredentials credentials3 =
+        UserCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials3.clock = wallClock;
+    credentials3.ticker = ticker;
+    TestUtils.assertContainsBearerToken(
+        credentials3.getRequestMetadata(CALL_URI), NEW_ACCESS_TOKEN);
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void sharedToken_notReusedWithinMarginOfRequestingCredentials() throws IOException {
+    SharedTokenCache.enable();
+    MockTokenServerTransportFactory transportFactory =
+        UserCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    TestClock clock = new TestClock();
+    UserCredentials credentials =
+        UserCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    credentials.clock = clock;
+    credentials.ticker = clock;
+    UserCredentials wideMarginCredentials =
+        UserCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    wideMarginCredentials.clock = clock;
+    wideMarginCredentials.ticker = clock;
+    wideMarginCredentials.enableAdaptiveMargin(
+        AdaptiveMarginOptions.newBuilder()
+            .setMinMarginMillis(TimeUnit.MINUTES.toMillis(10))
+            .setMaxMarginMillis(TimeUnit.MINUTES.toMillis(10))
+            .build());
+    credentials.getRequestMetadata(CALL_URI);
+    transportFactory.transport.addRefreshToken(UserCredentialsTest.REFRESH_TOKEN, NEW_ACCESS_TOKEN);
+
+    // Eight minutes left are enough for the default margin, but not for a ten minute one.
+    clock.addToCurrentTime(TimeUnit.MINUTES.toMillis(52));
+    TestUtils.assertContainsBearerToken(
+        wideMarginCredentials.getRequestMetadata(CALL_URI), NEW_ACCESS_TOKEN);
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void sameKeyIdWithDifferentKeys_doNotShareTokens() throws Exception {
+    SharedTokenCache.enable();
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+    keyPairGenerator.initialize(1024);
+    ServiceAccountCredentials credentials =
+        ServiceAccountCredentialsTest.createDefaultBuilder()
+            .setScopes(Collections.singletonList(SCOPE_1))
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    ServiceAccountCredentials otherKeyCredentials =
+        ServiceAccountCredentialsTest.createDefaultBuilder()
+            .setPrivateKey(keyPairGenerator.generateKeyPair().getPrivate())
+            .setScopes(Collections.singletonList(SCOPE_1))
+            .setHttpTransportFactory(transportFactory)
+            .build();
+
+    credentials.getRequestMetadata(CALL_URI);
+    otherKeyCredentials.getRequestMetadata(CALL_URI);
+
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+    assertFalse(credentials.getIdentityKey().equals(otherKeyCredentials.getIdentityKey()));
+    assertFalse(
+        credentials.getTokenPrincipalKey().equals(otherKeyCredentials.getTokenPrincipalKey()));
+  }
+
+  @Test
+  public void scopeSupersetReuse_sharesTokenWithSupersetOfScopes() throws IOException {
+    SharedTokenCache.enable(SharedTokenCache.DEFAULT_MAXIMUM_SIZE, true);
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    GoogleCredentials credentials =
+        ServiceAccountCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build();
+
+    credentials.createScoped(SCOPE_1, SCOPE_2).getRequestMetadata(CALL_URI);
+    TestUtils.assertContainsBearerToken(
+        credentials.createScoped(SCOPE_1).getRequestMetadata(CALL_URI), ACCESS_TOKEN);
+    assertEquals(1, transportFactory.transport.buildRequestCount);
+
+    // A token with fewer scopes does not stand in for one with more.
+    credentials.createScoped(SCOPE_2, "scope3").getRequestMetadata(CALL_URI);
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+  }
+
+  @Test
+  public void scopeSupersetReuse_disabledByDefault() throws IOException {
+    SharedTokenCache.enable();
+    MockTokenServerTransportFactory transportFactory =
+        ServiceAccountCredentialsTest.createTransportFactory(ACCESS_TOKEN);
+    GoogleCredentials credentials =
+        ServiceAccountCredentialsTest.createDefaultBuilder()
+            .setHttpTransportFactory(transportFactory)
+            .build();
+
+    credentials.createScoped(SCOPE_1, SCOPE_2).getRequestMetadata(CALL_URI);
+    credentials.createScoped(SCOPE_1).getRequestMetadata(CALL_URI);
+
+    assertEquals(2, transportFactory.transport.buildRequestCount);
+  }
+}
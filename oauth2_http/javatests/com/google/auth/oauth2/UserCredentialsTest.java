@@ -33,6 +33,7 @@ package com.google.auth.oauth2;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -40,6 +41,7 @@ import static org.junit.Assert.fail;
 
 import com.google.api.client.json.GenericJson;
 import com.google.api.client.util.Clock;
+import com.google.auth.IdentityKey;
 import com.google.auth.TestUtils;
 import com.google.auth.http.AuthHttpConstants;
 import com.google.auth.oauth2.GoogleCredentialsTest.MockHttpTransportFactory;
@@ -66,7 +68,7 @@ public class UserCredentialsTest extends BaseSerializationTest {
 
   private static final String CLIENT_SECRET = "jakuaL9YyieakhECKL2SwZcu";
   private static final String CLIENT_ID = "ya29.1.AADtN_UtlxN3PuGAxrN2XQnZTVRvDyVWnYq4I6dws";
-  private static final String REFRESH_TOKEN = "1/Tl6awhpFjkMkSJoj1xsli0H2eL5YsMgU_NKPY2TyGWY";
+  static final String REFRESH_TOKEN = "1/Tl6awhpFjkMkSJoj1xsli0H2eL5YsMgU_NKPY2TyGWY";
   private static final String ACCESS_TOKEN = "1/MkSJoj1xsli0AccessToken_NKPY2";
   private static final String QUOTA_PROJECT = "sample-quota-project-id";
   private static final Collection<String> SCOPES = Collections.singletonList("dummy.scope");
@@ -143,6 +145,32 @@ public class UserCredentialsTest extends BaseSerializationTest {
         Collections.singletonList(QUOTA_PROJECT));
   }
 
+  @Test
+  public void getRequestMetadata_quotaProjectId_reusedWhileTokenIsCached() throws IOException {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    UserCredentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setQuotaProjectId(QUOTA_PROJECT)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+
+    Map<String, List<String>> metadata = credentials.getRequestMetadata(CALL_URI);
+    assertSame(metadata, credentials.getRequestMetadata(CALL_URI));
+
+    // The asynchronous path serves the same metadata, quota project included.
+    MockRequestMetadataCallback callback = new MockRequestMetadataCallback();
+    credentials.getRequestMetadata(CALL_URI, new MockExecutor(), callback);
+    assertSame(metadata, callback.metadata);
+    assertEquals(
+        Collections.singletonList(QUOTA_PROJECT),
+        callback.metadata.get(GoogleCredentials.QUOTA_PROJECT_ID_HEADER_KEY));
+  }
+
   @Test
   public void getRequestMetadata_initialToken_hasAccessToken() throws IOException {
     MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
@@ -221,6 +249,28 @@ public class UserCredentialsTest extends BaseSerializationTest {
     TestUtils.assertContainsBearerToken(metadata, ACCESS_TOKEN);
   }
 
+  @Test
+  public void getIdentityKey_comparesRefreshToken() throws IOException {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, ACCESS_TOKEN);
+    UserCredentials credentials =
+        UserCredentials.newBuilder()
+            .setClientId(CLIENT_ID)
+            .setClientSecret(CLIENT_SECRET)
+            .setRefreshToken(REFRESH_TOKEN)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    IdentityKey key = credentials.getIdentityKey();
+
+    credentials.refresh();
+
+    assertEquals(key, credentials.getIdentityKey());
+    assertEquals(
+        key, credentials.toBuilder().setQuotaProjectId(QUOTA_PROJECT).build().getIdentityKey());
+    assertNotEquals(key, credentials.toBuilder().setRefreshToken("other").build().getIdentityKey());
+  }
+
   @Test
   public void equals_true() throws IOException {
     final URI tokenServer = URI.create("https://foo.com/bar");
@@ -622,6 +672,22 @@ public class UserCredentialsTest extends BaseSerializationTest {
     assertEquals(userCredentials.getRefreshToken(), restoredCredentials.getRefreshToken());
   }
 
+  /** Returns a builder of credentials for the test client and refresh token. */
+  static UserCredentials.Builder createDefaultBuilder() {
+    return UserCredentials.newBuilder()
+        .setClientId(CLIENT_ID)
+        .setClientSecret(CLIENT_SECRET)
+        .setRefreshToken(REFRESH_TOKEN);
+  }
+
+  /** Returns a transport factory issuing the access token for the test refresh token. */
+  static MockTokenServerTransportFactory createTransportFactory(String accessToken) {
+    MockTokenServerTransportFactory transportFactory = new MockTokenServerTransportFactory();
+    transportFactory.transport.addClient(CLIENT_ID, CLIENT_SECRET);
+    transportFactory.transport.addRefreshToken(REFRESH_TOKEN, accessToken);
+    return transportFactory;
+  }
+
   static GenericJson writeUserJson(
       String clientId, String clientSecret, String refreshToken, String quotaProjectId) {
     GenericJson json = new GenericJson();
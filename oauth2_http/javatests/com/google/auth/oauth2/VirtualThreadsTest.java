@@ -0,0 +1,108 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class VirtualThreadsTest {
+
+  @Test
+  public void isSupported_onlyFromJava21() {
+    String version = System.getProperty("java.specification.version");
+    if (version.startsWith("1.") || Integer.parseInt(version) < 21) {
+      assertFalse(VirtualThreads.isSupported());
+    }
+  }
+
+  @Test
+  public void newExecutor_startsThread() throws Exception {
+    MockExecutor fallback = new MockExecutor();
+    Executor executor =
+        VirtualThreads.newExecutor(
+            VirtualThreadsTest.class.getDeclaredMethod("startThread", Runnable.class), fallback);
+    final CountDownLatch ran = new CountDownLatch(1);
+
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            ran.countDown();
+          }
+        });
+
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertEquals(0, fallback.numTasks());
+  }
+
+  @Test
+  public void newExecutor_startFails_usesFallback() throws Exception {
+    MockExecutor fallback = new MockExecutor();
+    Executor executor =
+        VirtualThreads.newExecutor(
+            VirtualThreadsTest.class.getDeclaredMethod("failToStartThread", Runnable.class),
+            fallback);
+    final AtomicInteger runs = new AtomicInteger();
+
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            runs.incrementAndGet();
+          }
+        });
+
+    assertEquals(1, fallback.runTasksExhaustively());
+    assertEquals(1, runs.get());
+  }
+
+  static Thread startThread(Runnable task) {
+    Thread thread = new Thread(task);
+    thread.start();
+    return thread;
+  }
+
+  static Thread failToStartThread(Runnable task) {
+    // As Thread.startVirtualThread does on Java 19 and 20 without preview features enabled.
+    throw new UnsupportedOperationException("Preview Features not enabled");
+  }
+}
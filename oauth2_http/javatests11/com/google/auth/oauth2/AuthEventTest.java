@@ -0,0 +1,95 @@
+/*
+ * Copyright 2026, Google LLC
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google LLC nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.google.auth.oauth2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test case for the Java Flight Recorder events of {@link AuthEvent}. */
+@RunWith(JUnit4.class)
+public class AuthEventTest {
+
+  @Test
+  public void begin_notRecorded_returnsSharedInstance() {
+    assertSame(
+        AuthEvent.begin(AuthEvent.Operation.REFRESH, "detail"),
+        AuthEvent.begin(AuthEvent.Operation.SIGN, "detail"));
+  }
+
+  @Test
+  public void end_recorded_commitsEvent() throws IOException {
+    Path file = Files.createTempFile("auth-events", ".jfr");
+    try {
+      try (Recording recording = new Recording()) {
+        recording.enable("com.google.auth.Refresh");
+        recording.enable("com.google.auth.Verify");
+        recording.disable("com.google.auth.Sign");
+        recording.start();
+        AuthEvent.begin(AuthEvent.Operation.REFRESH, "refresh-detail").end(true);
+        AuthEvent.begin(AuthEvent.Operation.VERIFY, "verify-detail").end(false);
+        AuthEvent.begin(AuthEvent.Operation.SIGN, "sign-detail").end(true);
+        recording.stop();
+        recording.dump(file);
+      }
+
+      Map<String, RecordedEvent> events = new HashMap<>();
+      for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+        if (event.getEventType().getName().startsWith("com.google.auth.")) {
+          events.put(event.getEventType().getName(), event);
+        }
+      }
+      assertEquals(2, events.size());
+      RecordedEvent refresh = events.get("com.google.auth.Refresh");
+      assertEquals("refresh-detail", refresh.getString("detail"));
+      assertTrue(refresh.getBoolean("success"));
+      RecordedEvent verify = events.get("com.google.auth.Verify");
+      assertEquals("verify-detail", verify.getString("detail"));
+      assertFalse(verify.getBoolean("success"));
+    } finally {
+      Files.delete(file);
+    }
+  }
+}